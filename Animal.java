@@ -1,33 +1,447 @@
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
 /**
  * A class representing shared characteristics of animals.
+ *
+ * All animals behave in the same way: they age, get hungry, breed with
+ * a neighbour of the opposite gender, move towards food and die. What
+ * differs between species is held in a table of SpeciesTraits, so the
+ * one act method below serves every species and the simulator's call to
+ * it always reaches the same code.
  */
-public abstract class Animal
+public class Animal
 {
     private boolean alive;
     private Field field;
     private Location location;
     // The animal's gender: true for male, false for female
     private boolean male;
+    // The animal's species tag.
+    private final int species;
+    // The characteristics of the animal's species.
+    private final SpeciesTraits traits;
+    // Field of plants, for animals that eat them.
+    private final Field plantField;
+    // The animal's age, unless it is scheduled to die of old age.
+    private int age;
+    // The wheel on which its death from old age is scheduled, or null
+    // if it ages step by step.
+    private TimingWheel agingWheel;
+    // With an aging wheel, the tick at which the animal's age was zero.
+    private long born;
+    // Whether its death from old age is on the wheel, rather than found
+    // when it next acts.
+    private boolean agingScheduled;
+    // The animal's food level, which is increased by eating.
+    private int foodLevel;
     
     private static final Random rand = Randomizer.getRandom();
     
-    // Create a new animal at location in field. 
-    public Animal(Field field, Location location)
+    /**
+     * Create an animal of the given species. An animal can be created
+     * as a newborn (age zero and not hungry) or with a random age and
+     * food level.
+     * @param species The species tag.
+     * @param randomAge If true, the animal will have random age and
+     *                  hunger level.
+     * @param field The field currently occupied.
+     * @param plantField The field of plants.
+     * @param location The location within the field.
+     */
+    public Animal(int species, boolean randomAge, Field field, Field plantField,
+                  Location location)
     {
         this.alive = true;
         this.field = field;
-        setLocation(location);
+        this.plantField = plantField;
+        this.species = species;
+        this.traits = traitsOf(species);
         this.male = rand.nextBoolean();
+        setLocation(location);
+        if(randomAge) {
+            age = rand.nextInt(traits.getMaxAge());
+            foodLevel = rand.nextInt(traits.getFullFoodLevel());
+        }
+        else {
+            age = 0;
+            foodLevel = traits.getFullFoodLevel();
+        }
+    }
+
+    /**
+     * Create an animal of the given species with a random gender, age
+     * and food level, drawn from the given generator rather than the
+     * shared one.
+     * @param species The species tag.
+     * @param field The field currently occupied.
+     * @param plantField The field of plants.
+     * @param location The location within the field.
+     * @param random The generator to use.
+     */
+    public Animal(int species, Field field, Field plantField, Location location, Random random)
+    {
+        this.alive = true;
+        this.field = field;
+        this.plantField = plantField;
+        this.species = species;
+        this.traits = traitsOf(species);
+        this.male = random.nextBoolean();
+        setLocation(location);
+        age = random.nextInt(traits.getMaxAge());
+        foodLevel = random.nextInt(traits.getFullFoodLevel());
+    }
+
+    /**
+     * Create an animal with a given state, as saved in a checkpoint,
+     * without placing it in the field or drawing on any random
+     * generator; the caller places it if it occupies its location.
+     * @param species The species tag.
+     * @param field The field of animals.
+     * @param plantField The field of plants.
+     * @param location Its location, or null if it is dead.
+     * @param male The animal's gender.
+     * @param age The animal's age.
+     * @param foodLevel The animal's food level.
+     */
+    public Animal(int species, Field field, Field plantField, Location location,
+                  boolean male, int age, int foodLevel)
+    {
+        this.alive = location != null;
+        this.field = alive ? field : null;
+        this.plantField = plantField;
+        this.species = species;
+        this.traits = traitsOf(species);
+        this.male = male;
+        this.location = location;
+        this.age = age;
+        this.foodLevel = foodLevel;
+    }
+
+    /**
+     * @return The traits of a species of animal.
+     */
+    private static SpeciesTraits traitsOf(int species)
+    {
+        SpeciesTraits traits = SpeciesTraits.of(species);
+        if(traits == null) {
+            throw new IllegalArgumentException("Not a species of animal: " + species);
+        }
+        return traits;
     }
     
     /**
-     * Make this animal act
+     * This is what an animal does most of the time: it looks for food.
+     * In the process, it might breed, die of hunger, die of old age or
+     * die of overcrowding.
+     * @param newAnimals A list to receive newly born animals.
+     */
+    public final void act(List<Animal> newAnimals)
+    {
+        incrementAge();
+        incrementHunger();
+        actAged(newAnimals);
+    }
+
+    /**
+     * Act for a step in which the animal's age is kept by its aging
+     * wheel, and it does not have to be checked for old age.
+     * @param newAnimals A list to receive newly born animals.
+     */
+    final void actScheduled(List<Animal> newAnimals)
+    {
+        incrementHunger();
+        actAged(newAnimals);
+    }
+
+    /**
+     * Act for a step in which the animal's age is kept by the clock of
+     * its aging wheel, but its death from old age is not scheduled and
+     * is found here instead.
      * @param newAnimals A list to receive newly born animals.
      */
-    abstract public void act(List<Animal> newAnimals);
+    final void actClocked(List<Animal> newAnimals)
+    {
+        if(getAge() > traits.getMaxAge()) {
+            setDead(EventTracer.OLD_AGE);
+        }
+        else {
+            actScheduled(newAnimals);
+        }
+    }
+
+    /**
+     * Act for a step in which the animal has already aged and grown
+     * hungrier, as BulkAging does for many animals at once.
+     * @param newAnimals A list to receive newly born animals.
+     */
+    final void actAged(List<Animal> newAnimals)
+    {
+        if(isAlive()) {
+            giveBirth(newAnimals);            
+            // Move towards a source of food if found.
+            Location newLocation = findFood();
+            if(newLocation == null) { 
+                // No food found - try to move to a free location.
+                newLocation = getField().freeAdjacentLocation(getLocation());
+            }
+            // See if it was possible to move.
+            if(newLocation != null) {
+                setLocation(newLocation);
+            }
+            else {
+                // Overcrowding.
+                setDead(EventTracer.OVERCROWDING);
+            }
+        }
+    }
+
+    /**
+     * Increase the age. This could result in the animal's death.
+     */
+    private void incrementAge()
+    {
+        age++;
+        if(age > traits.getMaxAge()) {
+            setDead(EventTracer.OLD_AGE);
+        }
+    }
+
+    /**
+     * Make this animal more hungry. This could result in its death.
+     */
+    private void incrementHunger()
+    {
+        foodLevel--;
+        if(foodLevel <= 0) {
+            setDead(EventTracer.STARVATION);
+        }
+    }
+
+    /**
+     * Look for food adjacent to the current location: a live animal of
+     * a species in the diet, or a live plant if the diet includes
+     * plants. Only the first food found is eaten. If the field's
+     * Bitboards show no food next to the animal, none is looked for.
+     * @return Where food was found, or null if it wasn't.
+     */
+    private Location findFood()
+    {
+        int diet = traits.getDietMask();
+        boolean hunts = traits.eatsAnimals();
+        boolean forages = traits.eatsPlants();
+        NeighbourCounts animalCounts = field.getFoodCounts();
+        NeighbourCounts plantCounts = forages ? plantField.getFoodCounts() : null;
+        if(animalCounts != null && (plantCounts != null || !forages)) {
+            return findCountedFood(animalCounts, plantCounts);
+        }
+        Bitboards boards = field.getBitboards();
+        if(boards != null
+                && !boards.hasAdjacentPrey(species, location.getRow(), location.getCol())) {
+            // The scan would find nothing, so it is not made.
+            return null;
+        }
+        List<Location> adjacent = field.adjacentLocations(location);
+        Iterator<Location> it = adjacent.iterator();
+        while(it.hasNext()) {
+            Location where = it.next();
+            if(hunts) {
+                Object animal = field.getObjectAt(where);
+                if(animal instanceof Animal) {
+                    Animal prey = (Animal) animal;
+                    if((diet >>> prey.species & 1) != 0 && prey.isAlive()) {
+                        prey.setEaten(this);
+                        foodLevel = traits.getFoodValue(prey.species);
+                        return where;
+                    }
+                }
+            }
+            if(forages) {
+                Object plant = plantField.getObjectAt(where);
+                if(plant instanceof Plant) {
+                    Plant food = (Plant) plant;
+                    if(food.isAlive()) {
+                        food.eat(this);
+                        foodLevel = traits.getFoodValue(Species.PLANT);
+                        return where;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Look for food using the NeighbourCounts of the fields. If the
+     * counts show no food next to the animal, nothing is scanned;
+     * otherwise one of the locations with food is picked at random, as
+     * the first found in a shuffled scan would be.
+     * @param animalCounts The counts of the field of animals.
+     * @param plantCounts The counts of the field of plants, or null if
+     *                    the animal does not eat plants.
+     * @return Where food was found, or null if it wasn't.
+     */
+    private Location findCountedFood(NeighbourCounts animalCounts, NeighbourCounts plantCounts)
+    {
+        int diet = traits.getDietMask();
+        int row = location.getRow();
+        int col = location.getCol();
+        int available = 0;
+        for(int prey = diet & ~(1 << Species.PLANT); prey != 0; prey &= prey - 1) {
+            int tag = Integer.numberOfTrailingZeros(prey);
+            available += animalCounts.get(NeighbourCounts.plane(tag, false), row, col)
+                         + animalCounts.get(NeighbourCounts.plane(tag, true), row, col);
+        }
+        if(traits.eatsPlants()) {
+            available += plantCounts.get(NeighbourCounts.plane(Species.PLANT, false), row, col);
+        }
+        if(available == 0) {
+            return null;
+        }
+
+        // The neighbours with food, as row * width + col.
+        int[] found = new int[8];
+        int count = 0;
+        int depth = field.getDepth();
+        int width = field.getWidth();
+        for(int r = Math.max(row - 1, 0); r <= Math.min(row + 1, depth - 1); r++) {
+            for(int c = Math.max(col - 1, 0); c <= Math.min(col + 1, width - 1); c++) {
+                if((r != row || c != col) && foodAt(r, c) != null) {
+                    found[count++] = r * width + c;
+                }
+            }
+        }
+        if(count == 0) {
+            return null;
+        }
+        int cell = found[count == 1 ? 0 : rand.nextInt(count)];
+        Location where = new Location(cell / width, cell % width);
+        Object food = foodAt(where.getRow(), where.getCol());
+        if(food instanceof Animal) {
+            Animal prey = (Animal) food;
+            prey.setEaten(this);
+            foodLevel = traits.getFoodValue(prey.species);
+        }
+        else {
+            ((Plant) food).eat(this);
+            foodLevel = traits.getFoodValue(Species.PLANT);
+        }
+        return where;
+    }
+
+    /**
+     * @return The live prey or plant this animal would eat at a
+     *         location, preferring prey, or null if there is none.
+     */
+    private Object foodAt(int row, int col)
+    {
+        if(traits.eatsAnimals()) {
+            Object animal = field.getObjectAt(row, col);
+            if(animal instanceof Animal) {
+                Animal prey = (Animal) animal;
+                if(traits.eats(prey.species) && prey.isAlive()) {
+                    return prey;
+                }
+            }
+        }
+        if(traits.eatsPlants()) {
+            Object plant = plantField.getObjectAt(row, col);
+            if(plant instanceof Plant && ((Plant) plant).isAlive()) {
+                return plant;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether the first animal of this species in an adjacent
+     * position is of the opposite gender. If the field's NeighbourCounts
+     * are kept for mating, check instead whether any adjacent animal of
+     * this species is of the opposite gender. If the field's Bitboards
+     * show no partner next to it, there is none.
+     * @return If a partner is found.
+     */
+    private boolean meet()
+    {
+        NeighbourCounts counts = field.getMatingCounts();
+        if(counts != null) {
+            return counts.get(NeighbourCounts.plane(species, !male),
+                              location.getRow(), location.getCol()) > 0;
+        }
+        Bitboards boards = field.getBitboards();
+        if(boards != null
+                && !boards.hasAdjacentMate(species, male, location.getRow(), location.getCol())) {
+            // The scan would fail, so it is not made.
+            return false;
+        }
+        List<Location> adjacent = field.adjacentLocations(location);
+        Iterator<Location> it = adjacent.iterator();
+        while(it.hasNext()) {
+            Object animal = field.getObjectAt(it.next());
+            if(animal instanceof Animal && ((Animal) animal).species == species) {
+                return ((Animal) animal).getGender() != this.getGender();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether or not this animal is to give birth at this step.
+     * New births will be made into free adjacent locations, so there
+     * are none if the field's Bitboards show no free location.
+     * @param newAnimals A list to return newly born animals.
+     */
+    private void giveBirth(List<Animal> newAnimals)
+    {
+        if(meet()) {
+            Bitboards boards = field.getBitboards();
+            if(boards != null
+                    && !boards.hasFreeNeighbour(location.getRow(), location.getCol())) {
+                // There is no room for young, so neither room nor a
+                // litter is looked for.
+                return;
+            }
+            // The young are born into adjacent locations.
+            // Get a list of adjacent free locations.
+            List<Location> free = field.getFreeAdjacentLocations(location);
+            int births = breed();
+            for(int b = 0; b < births && free.size() > 0; b++) {
+                Location loc = free.remove(0);
+                Animal young = (Animal) Species.create(species, false, field, plantField, loc);
+                if(agingWheel != null && agingScheduled) {
+                    young.scheduleAging(agingWheel);
+                }
+                else if(agingWheel != null) {
+                    young.clockAging(agingWheel);
+                }
+                EventTracer.birth(young, loc);
+                newAnimals.add(young);
+            }
+        }
+    }
+
+    /**
+     * Generate a number representing the number of births,
+     * if it can breed.
+     * @return The number of births (may be zero).
+     */
+    private int breed()
+    {
+        int births = 0;
+        if(canBreed() && rand.nextDouble() <= traits.getBreedingProbability()) {
+            births = rand.nextInt(traits.getMaxLitterSize()) + 1;
+        }
+        return births;
+    }
+
+    /**
+     * An animal can breed if it has reached the breeding age.
+     */
+    private boolean canBreed()
+    {
+        return getAge() >= traits.getBreedingAge();
+    }
 
     /**
      * Check whether the animal is alive or not.
@@ -46,10 +460,137 @@ public abstract class Animal
         return this.male;
     }
 
+    /**
+     * @return The animal's species tag.
+     */
+    public int getSpecies()
+    {
+        return species;
+    }
+
+    /**
+     * @return The traits of the animal's species.
+     */
+    public SpeciesTraits getTraits()
+    {
+        return traits;
+    }
+
+    /**
+     * @return The animal's age.
+     */
+    protected int getAge()
+    {
+        if(agingWheel != null) {
+            return (int) (agingWheel.getTick() - born);
+        }
+        return age;
+    }
+
+    /**
+     * Keep the animal's age from now on by the clock of a timing wheel,
+     * on which its death from old age is scheduled.
+     * @param wheel The wheel, whose current tick the animal has
+     *              reached its current age by.
+     */
+    void scheduleAging(TimingWheel wheel)
+    {
+        clockAging(wheel);
+        agingScheduled = true;
+        wheel.schedule(this, born + traits.getMaxAge() + 1);
+    }
+
+    /**
+     * Keep the animal's age from now on by the clock of a timing wheel,
+     * without scheduling its death from old age; it must then act
+     * through actClocked.
+     * @param wheel The wheel, whose current tick the animal has
+     *              reached its current age by.
+     */
+    void clockAging(TimingWheel wheel)
+    {
+        born = wheel.getTick() - getAge();
+        agingWheel = wheel;
+        agingScheduled = false;
+    }
+
+    /**
+     * Go back to aging step by step.
+     */
+    void unscheduleAging()
+    {
+        age = getAge();
+        agingWheel = null;
+    }
+
+    /**
+     * Die of old age, when the animal's aging wheel says it is due.
+     * @param wheel The wheel that fired.
+     */
+    void agingDue(TimingWheel wheel)
+    {
+        if(agingWheel == wheel && isAlive()) {
+            setDead(EventTracer.OLD_AGE);
+        }
+    }
+
+    /**
+     * @return The animal's food level.
+     */
+    protected int getFoodLevel()
+    {
+        return foodLevel;
+    }
+
+    /**
+     * Set the animal's age and food level, without checking whether it
+     * should die.
+     * @param age The new age.
+     * @param foodLevel The new food level.
+     */
+    void setAgeAndFoodLevel(int age, int foodLevel)
+    {
+        this.age = age;
+        this.foodLevel = foodLevel;
+    }
+
     /**
      * Indicate that the animal is no longer alive.
+     * @param cause Why the animal died, as one of the EventTracer causes.
+     */
+    protected void setDead(int cause)
+    {
+        if(alive) {
+            EventTracer.death(this, location, cause, null);
+        }
+        remove();
+    }
+
+    /**
+     * Indicate that the animal has been eaten by a predator.
+     * @param predator The animal that ate it.
+     */
+    protected void setEaten(Animal predator)
+    {
+        if(alive) {
+            EventTracer.death(this, location, EventTracer.PREDATION, predator);
+        }
+        remove();
+    }
+
+    /**
+     * Take the animal out of the field without it dying, as when it
+     * passes into the part of the world that MeanField models.
+     */
+    void withdraw()
+    {
+        remove();
+    }
+
+    /**
+     * Mark the animal as dead and take it out of the field.
      */
-    protected void setDead()
+    private void remove()
     {
         this.alive = false;
         if(this.location != null) {
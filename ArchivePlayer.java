@@ -0,0 +1,98 @@
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Play back a frame archive written by a FrameExporter in a
+ * SimulatorView, without running the simulation. Frames are read as
+ * fast as they can be decoded unless a frame rate is given; the view
+ * draws the newest one at its own rate.
+ */
+public class ArchivePlayer
+{
+    // The archive being played.
+    private final FrameArchive archive;
+    // Where the frames are shown, or null to only decode them.
+    private SimulatorView view;
+
+    /**
+     * Open an archive for playing.
+     * @param file The archive.
+     * @param headless true to decode the frames without showing them.
+     * @throws IOException If the archive cannot be read.
+     */
+    public ArchivePlayer(File file, boolean headless) throws IOException
+    {
+        archive = new FrameArchive(file);
+        if(!headless && archive.next()) {
+            view = new SimulatorView(archive.getDepth(), archive.getWidth());
+            for(int tag = 1; tag < Species.count(); tag++) {
+                view.setColor(Species.typeOf(tag), archive.getColor(tag));
+            }
+            view.showFrame(archive.getStep(), archive.getTags());
+        }
+    }
+
+    /**
+     * Play the rest of the archive.
+     * @param framesPerSecond The rate at which to read frames, or zero
+     *                        to read them as fast as possible.
+     * @return The number of frames read in all.
+     * @throws IOException If the archive cannot be read.
+     */
+    public int play(int framesPerSecond) throws IOException
+    {
+        long interval = framesPerSecond > 0 ? 1_000_000_000L / framesPerSecond : 0;
+        long due = System.nanoTime();
+        while(archive.next()) {
+            if(view != null) {
+                view.showFrame(archive.getStep(), archive.getTags());
+            }
+            if(interval > 0) {
+                due += interval;
+                long wait = due - System.nanoTime();
+                if(wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    }
+                    catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        archive.close();
+        return archive.getFrameCount();
+    }
+
+    /**
+     * Play an archive. The first argument names the archive and the
+     * optional second gives the frame rate. With no display, or with
+     * the argument "headless", the frames are only decoded, which
+     * measures how fast the archive can be read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length == 0) {
+            System.out.println("Usage: ArchivePlayer <archive> [frames per second] [headless]");
+            return;
+        }
+        boolean headless = GraphicsEnvironment.isHeadless();
+        int framesPerSecond = 0;
+        for(int i = 1; i < args.length; i++) {
+            if(args[i].equals("headless")) {
+                headless = true;
+            }
+            else {
+                framesPerSecond = Integer.parseInt(args[i]);
+            }
+        }
+        ArchivePlayer player = new ArchivePlayer(new File(args[0]), headless);
+        long start = System.nanoTime();
+        int frames = player.play(framesPerSecond);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d frames in %.2f s (%.0f frames per second)%n",
+                          frames, seconds, frames / Math.max(seconds, 1e-9));
+    }
+}
@@ -0,0 +1,278 @@
+import java.util.Arrays;
+
+/**
+ * Bitboards of the fields: for each species and gender of animal, and
+ * for plants, one bit per position saying whether it holds one, with
+ * each row packed into long words. A further board marks the positions
+ * of the field of animals that are occupied.
+ *
+ * The boards are kept up to date as the fields change. Once a step,
+ * computeMasks works out from them, for the whole grid at once, which
+ * positions have next to them an animal of each plane, a plant, the
+ * prey of each species, and a free position. Each mask is made by
+ * shifting the rows of a board one place each way and ORing them with
+ * the rows above and below, a few word operations per 64 positions.
+ *
+ * Between computations the masks are kept conservative: whenever an
+ * animal or plant is placed, the positions around it are marked in its
+ * plane's mask and the prey masks of the species that eat it, and
+ * whenever an animal leaves a position, the positions around it are
+ * marked in the free mask. Nothing is unmarked until the next
+ * computation. A clear bit is therefore always true, so an animal can
+ * use it to rule out looking for food, a partner or room for its young
+ * at any time; a set bit only says that there may be something there,
+ * and what is there must still be checked. A search that is ruled out
+ * draws no random numbers, so a run with the masks does not repeat the
+ * run without them for the same seed.
+ */
+public class Bitboards
+{
+    // The depth and width of the fields.
+    private final int depth, width;
+    // The number of words in each row.
+    private final int wordsPerRow;
+    // The valid bits of the last word of each row.
+    private final long lastWordMask;
+    // The boards of each plane, as numbered by NeighbourCounts, and of
+    // the occupied positions of the field of animals.
+    private final long[][] boards;
+    private final long[] occupied;
+    // The masks of positions next to each plane, to the prey of each
+    // species, and to a free position.
+    private final long[][] adjacent;
+    private final long[][] prey;
+    private final long[] free;
+    // The species that eat each species, as a bit per species tag,
+    // indexed by tag.
+    private final int[] eaters;
+    // Scratch rows for the kernels.
+    private final long[] sides;
+    private final long[] spans;
+
+    /**
+     * Create empty bitboards for fields of the given size.
+     * @param depth The depth of the fields.
+     * @param width The width of the fields.
+     */
+    public Bitboards(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        wordsPerRow = (width + 63) >>> 6;
+        lastWordMask = -1L >>> (wordsPerRow * 64 - width);
+        int size = depth * wordsPerRow;
+        boards = new long[2 * Species.count()][size];
+        occupied = new long[size];
+        adjacent = new long[boards.length][size];
+        prey = new long[Species.count()][size];
+        free = new long[size];
+        sides = new long[size];
+        spans = new long[size];
+        eaters = new int[Species.count()];
+        findEaters();
+    }
+
+    /**
+     * Note that an occupant has been placed in a field.
+     * @param occupant What was placed.
+     * @param row The row of its position.
+     * @param col The column of its position.
+     */
+    public void added(Object occupant, int row, int col)
+    {
+        int plane = NeighbourCounts.planeOf(occupant);
+        int word = row * wordsPerRow + (col >>> 6);
+        long bit = 1L << col;
+        if(plane >= 0) {
+            boards[plane][word] |= bit;
+            markAround(adjacent[plane], row, col);
+            for(int eater = eaters[plane / 2]; eater != 0; eater &= eater - 1) {
+                markAround(prey[Integer.numberOfTrailingZeros(eater)], row, col);
+            }
+        }
+        if(occupant instanceof Animal) {
+            occupied[word] |= bit;
+        }
+    }
+
+    /**
+     * Note that an occupant has been cleared from a field.
+     * @param occupant What was cleared.
+     * @param row The row of its position.
+     * @param col The column of its position.
+     */
+    public void removed(Object occupant, int row, int col)
+    {
+        int plane = NeighbourCounts.planeOf(occupant);
+        int word = row * wordsPerRow + (col >>> 6);
+        long bit = 1L << col;
+        if(plane >= 0) {
+            boards[plane][word] &= ~bit;
+        }
+        if(occupant instanceof Animal) {
+            occupied[word] &= ~bit;
+            markAround(free, row, col);
+        }
+    }
+
+    /**
+     * Work out the masks from the boards as they are now.
+     */
+    public void computeMasks()
+    {
+        findEaters();
+        for(int plane = 0; plane < boards.length; plane++) {
+            adjacentTo(boards[plane], adjacent[plane]);
+        }
+        for(int species = 0; species < prey.length; species++) {
+            SpeciesTraits traits = SpeciesTraits.of(species);
+            long[] mask = prey[species];
+            Arrays.fill(mask, 0);
+            if(traits == null) {
+                continue;
+            }
+            for(int diet = traits.getDietMask(); diet != 0; diet &= diet - 1) {
+                int tag = Integer.numberOfTrailingZeros(diet);
+                or(mask, adjacent[NeighbourCounts.plane(tag, false)]);
+                if(tag != Species.PLANT) {
+                    or(mask, adjacent[NeighbourCounts.plane(tag, true)]);
+                }
+            }
+        }
+        // The free positions are those not occupied.
+        for(int i = 0; i < occupied.length; i++) {
+            free[i] = ~occupied[i];
+        }
+        clearPadding(free);
+        adjacentTo(free, free);
+    }
+
+    /**
+     * @param species The species tag of an animal.
+     * @param row The row of a position.
+     * @param col The column of a position.
+     * @return false only if no position next to the given one holds
+     *         prey of the species.
+     */
+    public boolean hasAdjacentPrey(int species, int row, int col)
+    {
+        return test(prey[species], row, col);
+    }
+
+    /**
+     * @param species The species tag of an animal.
+     * @param male The animal's gender.
+     * @param row The row of a position.
+     * @param col The column of a position.
+     * @return false only if no position next to the given one holds
+     *         an animal of the species and the opposite gender.
+     */
+    public boolean hasAdjacentMate(int species, boolean male, int row, int col)
+    {
+        return test(adjacent[NeighbourCounts.plane(species, !male)], row, col);
+    }
+
+    /**
+     * @param row The row of a position.
+     * @param col The column of a position.
+     * @return false only if no position next to the given one is
+     *         free of animals.
+     */
+    public boolean hasFreeNeighbour(int row, int col)
+    {
+        return test(free, row, col);
+    }
+
+    /**
+     * Work out which species eat each species, from their diets.
+     */
+    private void findEaters()
+    {
+        Arrays.fill(eaters, 0);
+        for(int species = 0; species < eaters.length; species++) {
+            SpeciesTraits traits = SpeciesTraits.of(species);
+            if(traits != null) {
+                for(int diet = traits.getDietMask(); diet != 0; diet &= diet - 1) {
+                    eaters[Integer.numberOfTrailingZeros(diet)] |= 1 << species;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark in a mask the positions next to one.
+     */
+    private void markAround(long[] mask, int row, int col)
+    {
+        for(int r = Math.max(row - 1, 0); r <= Math.min(row + 1, depth - 1); r++) {
+            for(int c = Math.max(col - 1, 0); c <= Math.min(col + 1, width - 1); c++) {
+                if(r != row || c != col) {
+                    mask[r * wordsPerRow + (c >>> 6)] |= 1L << c;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark in a mask the positions next to those set in a board,
+     * leaving out each position itself. The mask may be the board.
+     */
+    private void adjacentTo(long[] board, long[] mask)
+    {
+        // For each row, the positions beside a set one, and those
+        // beside or on one.
+        for(int row = 0; row < depth; row++) {
+            int start = row * wordsPerRow;
+            for(int i = 0; i < wordsPerRow; i++) {
+                long word = board[start + i];
+                long left = i > 0 ? board[start + i - 1] >>> 63 : 0;
+                long right = i < wordsPerRow - 1 ? board[start + i + 1] << 63 : 0;
+                long beside = word << 1 | left | word >>> 1 | right;
+                sides[start + i] = beside;
+                spans[start + i] = beside | word;
+            }
+        }
+        for(int row = 0; row < depth; row++) {
+            int start = row * wordsPerRow;
+            for(int i = 0; i < wordsPerRow; i++) {
+                long bits = sides[start + i];
+                if(row > 0) {
+                    bits |= spans[start - wordsPerRow + i];
+                }
+                if(row < depth - 1) {
+                    bits |= spans[start + wordsPerRow + i];
+                }
+                mask[start + i] = bits;
+            }
+        }
+        clearPadding(mask);
+    }
+
+    /**
+     * Clear the bits past the end of each row.
+     */
+    private void clearPadding(long[] board)
+    {
+        for(int last = wordsPerRow - 1; last < board.length; last += wordsPerRow) {
+            board[last] &= lastWordMask;
+        }
+    }
+
+    /**
+     * OR one board into another.
+     */
+    private static void or(long[] into, long[] from)
+    {
+        for(int i = 0; i < into.length; i++) {
+            into[i] |= from[i];
+        }
+    }
+
+    /**
+     * @return Whether the bit of a position is set in a board.
+     */
+    private boolean test(long[] board, int row, int col)
+    {
+        return (board[row * wordsPerRow + (col >>> 6)] >>> col & 1) != 0;
+    }
+}
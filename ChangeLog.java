@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+/**
+ * A log of the cells of a grid changed by its last few versions. A
+ * copy of the grid taken at one of those versions can be brought up to
+ * date by copying just the logged cells. When a version changes more
+ * cells than the log is allowed to hold, the log is emptied, and any
+ * copy older than that version must be made in full.
+ */
+public class ChangeLog
+{
+    // The number of versions whose changes are kept.
+    private static final int VERSIONS = 4;
+    // The initial capacity of the log.
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // The changed cells of the versions after loggedFrom, in order.
+    private int[] cells;
+    // The number of entries used in cells.
+    private int size;
+    // The most entries the log may hold.
+    private final int limit;
+    // Counts the versions started.
+    private int version;
+    // The latest version whose changes are not in the log.
+    private int loggedFrom;
+    // Where the entries of each logged version start.
+    private final int[] starts;
+
+    /**
+     * Create an empty log.
+     * @param limit The most entries the log may hold.
+     */
+    public ChangeLog(int limit)
+    {
+        this.limit = limit;
+        cells = new int[Math.min(INITIAL_CAPACITY, limit)];
+        starts = new int[VERSIONS];
+    }
+
+    /**
+     * Start a new version, dropping the changes of the oldest one if
+     * the log holds as many versions as it can.
+     */
+    public void startVersion()
+    {
+        version++;
+        int held = version - 1 - loggedFrom;
+        if(held == VERSIONS) {
+            int cut = starts[1];
+            System.arraycopy(cells, cut, cells, 0, size - cut);
+            size -= cut;
+            for(int i = 1; i < VERSIONS; i++) {
+                starts[i - 1] = starts[i] - cut;
+            }
+            loggedFrom++;
+            held--;
+        }
+        starts[held] = size;
+    }
+
+    /**
+     * Log a changed cell in the current version. If the log is full it
+     * is emptied and the current version is left out of it.
+     * @param cell The index of the cell.
+     */
+    public void add(int cell)
+    {
+        if(loggedFrom == version) {
+            return;
+        }
+        if(size == cells.length) {
+            if(size >= limit) {
+                drop();
+                return;
+            }
+            cells = Arrays.copyOf(cells, Math.min(limit, size * 2));
+        }
+        cells[size++] = cell;
+    }
+
+    /**
+     * Empty the log and leave the current version out of it, for a
+     * change to the grid that is not made cell by cell.
+     */
+    public void drop()
+    {
+        loggedFrom = version;
+        size = 0;
+    }
+
+    /**
+     * @return The current version.
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Find the changes made after a given version.
+     * @param since A version no later than the current one.
+     * @return The index of the first entry made after that version, or
+     *         -1 if the log no longer holds every change since then.
+     */
+    public int find(int since)
+    {
+        if(since < loggedFrom) {
+            return -1;
+        }
+        return since == version ? size : starts[since - loggedFrom];
+    }
+
+    /**
+     * @return The number of entries in the log.
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @param i Which entry, from 0 to getSize() - 1.
+     * @return The changed cell.
+     */
+    public int getCell(int i)
+    {
+        return cells[i];
+    }
+}
@@ -47,6 +47,15 @@ public class Counter
         count++;
     }
     
+    /**
+     * Increase the current count.
+     * @param amount The number to add.
+     */
+    public void add(int amount)
+    {
+        count += amount;
+    }
+    
     /**
      * Reset the current count to zero.
      */
@@ -0,0 +1,339 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Run the daytime steps of a simulation as a sequence of events in
+ * continuous time, in the manner of Gillespie's algorithm, instead of
+ * letting every animal and plant act once per step.
+ *
+ * Each kind of event happens at a rate, its propensity: the expected
+ * number of times it happens in a step. An animal acts - growing
+ * hungrier, perhaps breeding, eating and moving - at the rate of once a
+ * step. A plant spreads at a rate that gives it the same chance of
+ * spreading in a step as when stepping, but only while it has a free
+ * location next to it; the propensities of
+ * the plants are kept in a sum tree and changed only around the places
+ * where plants appear or disappear, so a field full of plants that
+ * cannot spread costs nothing. The time to the next event is drawn from
+ * the total propensity, and the event from the propensities. Nights, in
+ * which nothing acts, cost nothing either. Deaths of plants from old
+ * age are scheduled on a timing wheel, whose clock counts the daytime
+ * steps. Animals keep their ages by the same clock, but an animal's
+ * death from old age is found when it next acts rather than scheduled:
+ * the wheel would otherwise hold every animal that had been eaten or
+ * starved until it would have died of old age, and the garbage
+ * collector would spend almost as long again on them as on the rest.
+ *
+ * Propensities are allowed to be too high: an event picked for an
+ * animal that has died, or a plant that cannot spread, changes nothing.
+ * This keeps the bookkeeping small without changing the rates of the
+ * events that do happen.
+ *
+ * Animals are not given propensities of their own, because none is
+ * ever idle: each act makes an animal hungrier and then moves it,
+ * feeds it or kills it by overcrowding, so giving an animal a lower
+ * rate would change how it lives. The cost of a step therefore still
+ * grows with the number of animals, as when stepping, and only plants
+ * that cannot spread are skipped. Headless from the default start, 750
+ * steps of a 150x150 field took 8.5 s to 9.4 s with events against
+ * 7.8 s to 9.3 s stepping, and 100 steps of a 512x512 field, where
+ * most plants cannot spread, 37.1 s against 58.9 s.
+ *
+ * The engine works on the simulator's own fields and lists, so the
+ * simulator reports its populations, records its timeline and saves
+ * checkpoints as it does when stepping. The results are statistically
+ * comparable with stepping, not identical: per-step probabilities
+ * become rates, an animal acts a random number of times in a step
+ * rather than exactly once, newborns can act in the step they are
+ * born, and an animal that has outlived its age can be eaten until it
+ * next acts.
+ */
+public class EventEngine
+{
+    // The rate at which each animal acts, per step.
+    private static final double ANIMAL_RATE = 1.0;
+    // The rate at which a plant that can spread does so, per step,
+    // chosen so that it spreads at least once in a step with the same
+    // probability as when stepping.
+    private static final double PLANT_RATE = -Math.log(1.0 - Plant.GROWTH_PROBABILITY);
+    // Marks a location with no plant, or a free slot.
+    private static final int NO_SLOT = -1;
+
+    // The field of plants, and the lists of the simulation.
+    private final Field plantField;
+    private final List<Animal> animals;
+    private final List<Plant> plants;
+    // A shared random number generator.
+    private final Random rand = Randomizer.getRandom();
+
+    // The propensity of each plant slot to spread.
+    private final SumTree propensities;
+    // The plant in each slot, or null, and its location as
+    // row * width + col.
+    private Plant[] slotPlants;
+    private int[] slotCells;
+    // The slot of the plant at each location, as row * width + col.
+    private final int[] cellSlots;
+    // Slots that have been freed, for reuse.
+    private int[] freeSlots;
+    private int freeCount;
+    // The number of slots ever used.
+    private int slotCount;
+    // Whether the slots must be rebuilt from the list of plants.
+    private boolean stale;
+    // Receives new plants and the entities due on the wheel.
+    private final List<Plant> saplings = new ArrayList<>();
+    private final List<Object> due = new ArrayList<>();
+
+    /**
+     * Create an engine for a simulation.
+     * @param plantField The field of plants.
+     * @param animals The simulator's list of animals.
+     * @param plants The simulator's list of plants.
+     */
+    public EventEngine(Field plantField, List<Animal> animals, List<Plant> plants)
+    {
+        this.plantField = plantField;
+        this.animals = animals;
+        this.plants = plants;
+        cellSlots = new int[plantField.getDepth() * plantField.getWidth()];
+        propensities = new SumTree(Math.max(plants.size(), 1024));
+        slotPlants = new Plant[propensities.capacity()];
+        slotCells = new int[slotPlants.length];
+        freeSlots = new int[64];
+        stale = true;
+    }
+
+    /**
+     * Note that the lists of animals and plants have been replaced
+     * other than by this engine, as by a reset or a restore.
+     */
+    public void invalidate()
+    {
+        stale = true;
+    }
+
+    /**
+     * Run one daytime step.
+     * @param wheel The wheel on which deaths from old age are
+     *              scheduled, and which counts the daytime steps.
+     */
+    public void simulateDay(TimingWheel wheel)
+    {
+        if(stale) {
+            rebuild();
+        }
+        due.clear();
+        wheel.advance(due);
+        for(Object entity : due) {
+            if(entity instanceof Animal) {
+                ((Animal) entity).agingDue(wheel);
+            }
+            else {
+                Plant plant = (Plant) entity;
+                Location location = plant.getLocation();
+                plant.growthDue(wheel);
+                if(location != null && !plant.isAlive()) {
+                    refreshAround(location.getRow(), location.getCol());
+                }
+            }
+        }
+
+        double time = 0;
+        while(true) {
+            int animalCount = animals.size();
+            double total = animalCount * ANIMAL_RATE + propensities.total();
+            if(total <= 0) {
+                break;
+            }
+            time -= Math.log(1.0 - rand.nextDouble()) / total;
+            if(time >= 1.0) {
+                break;
+            }
+            double point = rand.nextDouble() * total;
+            if(point < animalCount * ANIMAL_RATE) {
+                animalActs(Math.min((int) (point / ANIMAL_RATE), animalCount - 1));
+            }
+            else {
+                plantSpreads(propensities.find(point - animalCount * ANIMAL_RATE));
+            }
+        }
+
+        animals.removeIf(animal -> !animal.isAlive());
+        plants.removeIf(plant -> !plant.isAlive());
+    }
+
+    /**
+     * Let the animal at an index of the list act. Dead animals are
+     * removed instead, swapping the last animal into their place.
+     */
+    private void animalActs(int index)
+    {
+        Animal animal = animals.get(index);
+        if(animal.isAlive()) {
+            // Newborns join the end of the list at once.
+            animal.actClocked(animals);
+            Location location = animal.getLocation();
+            if(location != null && animal.getTraits().eatsPlants()) {
+                // The animal moves to any plant it ate.
+                int slot = cellSlots[cellIndex(location.getRow(), location.getCol())];
+                if(slot != NO_SLOT && !slotPlants[slot].isAlive()) {
+                    refreshAround(location.getRow(), location.getCol());
+                }
+            }
+        }
+        if(!animal.isAlive()) {
+            int last = animals.size() - 1;
+            animals.set(index, animals.get(last));
+            animals.remove(last);
+        }
+    }
+
+    /**
+     * Let the plant in a slot spread, if it can.
+     */
+    private void plantSpreads(int slot)
+    {
+        Plant plant = slot < slotCount ? slotPlants[slot] : null;
+        if(plant == null || propensities.get(slot) <= 0) {
+            return;
+        }
+        if(!plant.isAlive()) {
+            // Eaten somewhere the engine did not look.
+            int cell = slotCells[slot];
+            freeSlot(slot);
+            if(cellSlots[cell] == slot) {
+                cellSlots[cell] = NO_SLOT;
+            }
+            refreshAround(cell / plantField.getWidth(), cell % plantField.getWidth());
+            return;
+        }
+        if(plant.getSize() < Plant.GROWTH_AGE) {
+            return;
+        }
+        saplings.clear();
+        plant.sprout(saplings);
+        for(Plant sapling : saplings) {
+            plants.add(sapling);
+            Location location = sapling.getLocation();
+            addSlot(sapling, location);
+            refreshAround(location.getRow(), location.getCol());
+        }
+        if(saplings.isEmpty()) {
+            Location location = plant.getLocation();
+            updatePropensity(slot, location.getRow(), location.getCol());
+        }
+    }
+
+    /**
+     * Give every live plant a slot, and work out its propensity.
+     */
+    private void rebuild()
+    {
+        Arrays.fill(cellSlots, NO_SLOT);
+        Arrays.fill(slotPlants, null);
+        propensities.clear();
+        slotCount = 0;
+        freeCount = 0;
+        for(Plant plant : plants) {
+            if(plant.isAlive()) {
+                addSlot(plant, plant.getLocation());
+            }
+        }
+        for(int slot = 0; slot < slotCount; slot++) {
+            Location location = slotPlants[slot].getLocation();
+            updatePropensity(slot, location.getRow(), location.getCol());
+        }
+        stale = false;
+    }
+
+    /**
+     * Give a plant a slot, with no propensity yet.
+     */
+    private void addSlot(Plant plant, Location location)
+    {
+        int slot;
+        if(freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        }
+        else {
+            slot = slotCount++;
+            if(slot >= slotPlants.length) {
+                slotPlants = Arrays.copyOf(slotPlants, slotPlants.length * 2);
+                slotCells = Arrays.copyOf(slotCells, slotPlants.length);
+            }
+        }
+        int cell = cellIndex(location.getRow(), location.getCol());
+        slotPlants[slot] = plant;
+        slotCells[slot] = cell;
+        cellSlots[cell] = slot;
+    }
+
+    /**
+     * Release the slot of a plant that has gone.
+     */
+    private void freeSlot(int slot)
+    {
+        slotPlants[slot] = null;
+        propensities.set(slot, 0);
+        if(freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * A plant has appeared or disappeared at a location: bring the
+     * slots of it and the plants around it up to date.
+     */
+    private void refreshAround(int row, int col)
+    {
+        int depth = plantField.getDepth();
+        int width = plantField.getWidth();
+        for(int r = Math.max(row - 1, 0); r <= Math.min(row + 1, depth - 1); r++) {
+            for(int c = Math.max(col - 1, 0); c <= Math.min(col + 1, width - 1); c++) {
+                int cell = cellIndex(r, c);
+                int slot = cellSlots[cell];
+                if(slot != NO_SLOT) {
+                    if(slotPlants[slot].isAlive()) {
+                        updatePropensity(slot, r, c);
+                    }
+                    else {
+                        freeSlot(slot);
+                        cellSlots[cell] = NO_SLOT;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the propensity of a plant to spread: PLANT_RATE if there is a
+     * free location next to it, and otherwise zero.
+     */
+    private void updatePropensity(int slot, int row, int col)
+    {
+        int depth = plantField.getDepth();
+        int width = plantField.getWidth();
+        boolean free = false;
+        for(int r = Math.max(row - 1, 0); r <= Math.min(row + 1, depth - 1) && !free; r++) {
+            for(int c = Math.max(col - 1, 0); c <= Math.min(col + 1, width - 1); c++) {
+                if((r != row || c != col) && plantField.getObjectAt(r, c) == null) {
+                    free = true;
+                    break;
+                }
+            }
+        }
+        propensities.set(slot, free ? PLANT_RATE : 0);
+    }
+
+    /**
+     * @return The index of a location in cellSlots.
+     */
+    private int cellIndex(int row, int col)
+    {
+        return row * plantField.getWidth() + col;
+    }
+}
@@ -0,0 +1,309 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Record births and deaths in the simulation, together with the cause
+ * of each death. Tracing is off by default and can be switched on or
+ * off at any time with setEnabled. While it is off each trace call
+ * costs a single flag test.
+ *
+ * Records go into a lock-free ring buffer owned by the calling thread
+ * and are only formatted when they are exported, either to a binary
+ * file or as JFR events. The buffers must be drained regularly, for
+ * example by a TraceRecorder after each step, since a full buffer drops
+ * new records. Buffers of threads that have finished are discarded
+ * once they have been drained.
+ */
+public class EventTracer
+{
+    // Kinds of event.
+    public static final int BIRTH = 1;
+    public static final int DEATH = 2;
+    public static final int PLANT_EATEN = 3;
+    public static final int PLANT_EXPIRED = 4;
+
+    // Causes of death.
+    public static final int NO_CAUSE = 0;
+    public static final int OLD_AGE = 1;
+    public static final int STARVATION = 2;
+    public static final int OVERCROWDING = 3;
+    public static final int PREDATION = 4;
+
+    // Names of the kinds and causes, for export.
+    private static final String[] KIND_NAMES = {
+        "none", "birth", "death", "plant eaten", "plant expired"
+    };
+    private static final String[] CAUSE_NAMES = {
+        "none", "old age", "starvation", "overcrowding", "predation"
+    };
+
+    // Identifies a binary trace file.
+    private static final int FILE_MAGIC = 0x50505452;   // "PPTR"
+    private static final int FILE_VERSION = 1;
+    // Size in bytes of one record in a binary trace file.
+    private static final int FILE_RECORD_SIZE = 16;
+    // Number of records each thread can hold before records are dropped.
+    private static final int BUFFER_CAPACITY = Integer.getInteger("simulator.traceCapacity", 1 << 16);
+
+    // Whether events are currently being recorded.
+    private static volatile boolean enabled = Boolean.getBoolean("simulator.trace");
+    // The simulation step stamped on new records.
+    private static volatile int step;
+    // Every buffer of a live thread, or with records not yet drained.
+    private static final List<TraceBuffer> buffers = new CopyOnWriteArrayList<>();
+    // Records dropped by buffers that have since been discarded.
+    private static final AtomicLong retiredDropped = new AtomicLong();
+    // The buffer belonging to the current thread.
+    private static final ThreadLocal<TraceBuffer> localBuffer = ThreadLocal.withInitial(() -> {
+        TraceBuffer buffer = new TraceBuffer(BUFFER_CAPACITY, Thread.currentThread());
+        buffers.add(buffer);
+        return buffer;
+    });
+
+    /**
+     * Receives raw records when the buffers are drained.
+     */
+    public interface Sink
+    {
+        /**
+         * @param header The step, kind, cause and species of the event.
+         * @param position The row and column where it happened.
+         */
+        void record(long header, long position);
+    }
+
+    /**
+     * Switch tracing on or off.
+     * @param on true to record events.
+     */
+    public static void setEnabled(boolean on)
+    {
+        enabled = on;
+    }
+
+    /**
+     * @return true if events are being recorded.
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Set the step number that is stamped on subsequent records.
+     * @param currentStep The simulation step.
+     */
+    public static void setStep(int currentStep)
+    {
+        step = currentStep;
+    }
+
+    /**
+     * Record that an animal or plant has been born.
+     * @param entity The newborn.
+     * @param location Where it was born.
+     */
+    public static void birth(Object entity, Location location)
+    {
+        if(enabled) {
+            write(BIRTH, NO_CAUSE, Species.of(entity), Species.NONE, location);
+        }
+    }
+
+    /**
+     * Record that an animal has died.
+     * @param entity The animal that died.
+     * @param location Where it died.
+     * @param cause One of the cause constants.
+     * @param killer The predator responsible, or null.
+     */
+    public static void death(Object entity, Location location, int cause, Object killer)
+    {
+        if(enabled) {
+            write(DEATH, cause, Species.of(entity), Species.of(killer), location);
+        }
+    }
+
+    /**
+     * Record that a plant has been eaten.
+     * @param plant The plant.
+     * @param location Where it grew.
+     * @param eater The animal that ate it.
+     */
+    public static void plantEaten(Plant plant, Location location, Object eater)
+    {
+        if(enabled) {
+            write(PLANT_EATEN, PREDATION, Species.PLANT, Species.of(eater), location);
+        }
+    }
+
+    /**
+     * Record that a plant has outgrown its maximum size.
+     * @param plant The plant.
+     * @param location Where it grew.
+     */
+    public static void plantExpired(Plant plant, Location location)
+    {
+        if(enabled) {
+            write(PLANT_EXPIRED, OLD_AGE, Species.PLANT, Species.NONE, location);
+        }
+    }
+
+    /**
+     * Pack an event into the current thread's buffer.
+     */
+    private static void write(int kind, int cause, int species, int other, Location location)
+    {
+        long header = ((long) step << 32) | (kind << 24) | (cause << 16) | (species << 8) | other;
+        long position = 0;
+        if(location != null) {
+            position = ((long) location.getRow() << 32) | (location.getCol() & 0xffffffffL);
+        }
+        localBuffer.get().write(header, position);
+    }
+
+    /**
+     * Pass all records written since the last drain to the sink, and
+     * discard the buffers of threads that have finished.
+     * @param sink The receiver of the records.
+     * @return The number of records drained.
+     */
+    public static synchronized int drain(Sink sink)
+    {
+        int total = 0;
+        for(TraceBuffer buffer : buffers) {
+            // Checked first, so that a finished owner cannot have written
+            // anything after the drain.
+            boolean finished = buffer.isOwnerFinished();
+            total += buffer.drain(sink);
+            if(finished) {
+                buffers.remove(buffer);
+                retiredDropped.addAndGet(buffer.getDropped());
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of records lost because a buffer was full.
+     */
+    public static long getDropped()
+    {
+        long total = retiredDropped.get();
+        for(TraceBuffer buffer : buffers) {
+            total += buffer.getDropped();
+        }
+        return total;
+    }
+
+    /**
+     * Drain all pending records to the end of a binary trace file.
+     * A new file starts with a magic number and a version; each record
+     * then takes 16 bytes: step, kind, cause, species, other species,
+     * row and column.
+     * @param file The file to write.
+     * @return The number of records written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static int exportBinary(File file) throws IOException
+    {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel()) {
+            ByteBuffer out = ByteBuffer.allocateDirect(FILE_RECORD_SIZE * 4096);
+            if(channel.size() == 0) {
+                out.putInt(FILE_MAGIC).putInt(FILE_VERSION);
+            }
+            channel.position(channel.size());
+            int written = drain((header, position) -> {
+                if(out.remaining() < FILE_RECORD_SIZE) {
+                    flush(channel, out);
+                }
+                out.putInt(stepOf(header));
+                out.put((byte) kindOf(header));
+                out.put((byte) causeOf(header));
+                out.put((byte) speciesOf(header));
+                out.put((byte) otherOf(header));
+                out.putInt((int) (position >> 32));
+                out.putInt((int) position);
+            });
+            flush(channel, out);
+            return written;
+        }
+        catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Drain all pending records as JFR events, so that they appear in a
+     * flight recording alongside the JVM's own events.
+     * @return The number of records drained.
+     */
+    public static int exportToJfr()
+    {
+        return drain((header, position) -> {
+            LifecycleEvent event = new LifecycleEvent();
+            if(event.shouldCommit()) {
+                event.step = stepOf(header);
+                event.kind = KIND_NAMES[kindOf(header)];
+                event.cause = CAUSE_NAMES[causeOf(header)];
+                event.species = Species.getName(speciesOf(header));
+                event.killer = Species.getName(otherOf(header));
+                event.row = (int) (position >> 32);
+                event.col = (int) position;
+                event.commit();
+            }
+        });
+    }
+
+    /**
+     * Write out and empty a byte buffer.
+     */
+    private static void flush(FileChannel channel, ByteBuffer out)
+    {
+        out.flip();
+        try {
+            while(out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        out.clear();
+    }
+
+    // Accessors for the fields of a record header.
+
+    public static int stepOf(long header)
+    {
+        return (int) (header >>> 32);
+    }
+
+    public static int kindOf(long header)
+    {
+        return (int) (header >>> 24) & 0xff;
+    }
+
+    public static int causeOf(long header)
+    {
+        return (int) (header >>> 16) & 0xff;
+    }
+
+    public static int speciesOf(long header)
+    {
+        return (int) (header >>> 8) & 0xff;
+    }
+
+    public static int otherOf(long header)
+    {
+        return (int) header & 0xff;
+    }
+}
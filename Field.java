@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -7,16 +8,67 @@ import java.util.Random;
 /**
  * Represent a rectangular grid of field positions.
  * Each position is able to store a single animal.
+ * The field can optionally record which positions have changed, so
+ * that a single consumer such as a view can update only those.
+ *
+ * The positions are stored in a single array in one of three layouts.
+ * ROW_MAJOR stores each row after the one before. MORTON stores them in
+ * Z-order, interleaving the bits of the row and column, and TILED stores
+ * square tiles of TILE_SIZE positions on a side one after another. In
+ * the last two the positions around any one are mostly close together
+ * in memory, which suits scanning neighbourhoods on a wide field. The
+ * layout makes no difference to what the field holds.
+ *
+ * The field can also keep NeighbourCounts of the animals around each
+ * position, updated as animals are placed and cleared, and Bitboards
+ * of what it holds.
  */
 public class Field
 {
+    // The ways the positions can be laid out in memory.
+    public static final int ROW_MAJOR = 0;
+    public static final int MORTON = 1;
+    public static final int TILED = 2;
+    // The size of a tile in the TILED layout, in bits and positions.
+    public static final int TILE_BITS = 3;
+    public static final int TILE_SIZE = 1 << TILE_BITS;
+
+    // Picks out a position's place within its tile.
+    private static final int TILE_MASK = TILE_SIZE - 1;
     // A random number generator for providing random locations.
     private static final Random rand = Randomizer.getRandom();
     
     // The depth and width of the field.
     private int depth, width;
-    // Storage for the animals.
-    private Object[][] field;
+    // How the positions are laid out in storage.
+    private final int layout;
+    // In the MORTON layout, the number of low bits of the row and the
+    // column that are interleaved; the rest of the longer one's bits
+    // come above them.
+    private final int mortonBits;
+    // In the TILED layout, the number of tiles across the field.
+    private final int tilesAcross;
+    // Storage for the animals, laid out as given by layout.
+    private Object[] field;
+    // Whether changed positions are being recorded.
+    private boolean trackChanges;
+    // One bit per position, set when the position has changed.
+    private long[] changedBits;
+    // The index (row * width + col) of each changed position.
+    private int[] changedCells;
+    // The number of entries used in changedCells.
+    private int changedCount;
+    // Whether so much has changed that the whole field should be
+    // treated as changed.
+    private boolean allChanged;
+    // The counts of the animals around each position, or null if they
+    // are not kept.
+    private NeighbourCounts neighbourCounts;
+    // Whether the counts are kept for finding partners, and for
+    // finding food.
+    private boolean matingCounts, foodCounts;
+    // The bitboards that mark what the field holds, or null.
+    private Bitboards bitboards;
 
     /**
      * Represent a field of the given dimensions.
@@ -24,10 +76,376 @@ public class Field
      * @param width The width of the field.
      */
     public Field(int depth, int width)
+    {
+        this(depth, width, ROW_MAJOR);
+    }
+
+    /**
+     * Represent a field of the given dimensions, with its positions
+     * laid out in storage as given.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param layout ROW_MAJOR, MORTON or TILED.
+     */
+    public Field(int depth, int width, int layout)
     {
         this.depth = depth;
         this.width = width;
-        field = new Object[depth][width];
+        this.layout = layout;
+        int rowBits = bitsFor(depth);
+        int colBits = bitsFor(width);
+        mortonBits = Math.min(rowBits, colBits);
+        tilesAcross = (width + TILE_MASK) >>> TILE_BITS;
+        long size;
+        switch(layout) {
+            case ROW_MAJOR:
+                size = (long) depth * width;
+                break;
+            case MORTON:
+                size = 1L << (rowBits + colBits);
+                break;
+            case TILED:
+                size = (long) ((depth + TILE_MASK) >>> TILE_BITS) * tilesAcross
+                       << (2 * TILE_BITS);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+        if(size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Field of " + depth + " by " + width
+                                               + " is too large for this layout");
+        }
+        field = new Object[(int) size];
+        allChanged = true;
+    }
+
+    /**
+     * @return The number of bits needed for coordinates below the
+     *         given size.
+     */
+    private static int bitsFor(int size)
+    {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 0));
+    }
+
+    /**
+     * @return How the positions are laid out: ROW_MAJOR, MORTON or
+     *         TILED.
+     */
+    public int getLayout()
+    {
+        return layout;
+    }
+
+    /**
+     * @return The number of places in storage, which is at least the
+     *         number of positions; in the MORTON and TILED layouts
+     *         some are padding that lies outside the field.
+     */
+    public int getStorageSize()
+    {
+        return field.length;
+    }
+
+    /**
+     * Return where a position is kept in storage.
+     * @param row The position's row.
+     * @param col The position's column.
+     * @return Its index in storage.
+     */
+    public int storageIndex(int row, int col)
+    {
+        switch(layout) {
+            case MORTON: {
+                int low = (1 << mortonBits) - 1;
+                return (spread(row & low) << 1 | spread(col & low))
+                       | ((row | col) >>> mortonBits) << (2 * mortonBits);
+            }
+            case TILED:
+                return ((row >>> TILE_BITS) * tilesAcross + (col >>> TILE_BITS)) << (2 * TILE_BITS)
+                       | (row & TILE_MASK) << TILE_BITS | (col & TILE_MASK);
+            default:
+                return row * width + col;
+        }
+    }
+
+    /**
+     * Return the row of a place in storage.
+     * @param index An index in storage.
+     * @return The row of the position kept there; it may be outside
+     *         the field if the place is padding.
+     */
+    public int storageRow(int index)
+    {
+        switch(layout) {
+            case MORTON: {
+                int row = compact(index >>> 1 & interleavedMask());
+                if(depth > width) {
+                    row |= index >>> (2 * mortonBits) << mortonBits;
+                }
+                return row;
+            }
+            case TILED:
+                return (index >>> (2 * TILE_BITS)) / tilesAcross << TILE_BITS
+                       | (index >>> TILE_BITS & TILE_MASK);
+            default:
+                return index / width;
+        }
+    }
+
+    /**
+     * Return the column of a place in storage.
+     * @param index An index in storage.
+     * @return The column of the position kept there; it may be outside
+     *         the field if the place is padding.
+     */
+    public int storageCol(int index)
+    {
+        switch(layout) {
+            case MORTON: {
+                int col = compact(index & interleavedMask());
+                if(depth <= width) {
+                    col |= index >>> (2 * mortonBits) << mortonBits;
+                }
+                return col;
+            }
+            case TILED:
+                return (index >>> (2 * TILE_BITS)) % tilesAcross << TILE_BITS
+                       | (index & TILE_MASK);
+            default:
+                return index % width;
+        }
+    }
+
+    /**
+     * @return Picks out the interleaved bits of a MORTON index.
+     */
+    private int interleavedMask()
+    {
+        return (int) ((1L << (2 * mortonBits)) - 1);
+    }
+
+    /**
+     * Spread the low 16 bits of a value out to the even bits.
+     */
+    private static int spread(int x)
+    {
+        x &= 0xffff;
+        x = (x | (x << 8)) & 0x00ff00ff;
+        x = (x | (x << 4)) & 0x0f0f0f0f;
+        x = (x | (x << 2)) & 0x33333333;
+        x = (x | (x << 1)) & 0x55555555;
+        return x;
+    }
+
+    /**
+     * Gather the even bits of a value into the low 16 bits.
+     */
+    private static int compact(int x)
+    {
+        x &= 0x55555555;
+        x = (x | (x >>> 1)) & 0x33333333;
+        x = (x | (x >>> 2)) & 0x0f0f0f0f;
+        x = (x | (x >>> 4)) & 0x00ff00ff;
+        x = (x | (x >>> 8)) & 0x0000ffff;
+        return x;
+    }
+
+    /**
+     * Start or stop recording which positions change.
+     * @param track true to record changes.
+     */
+    public void setTrackChanges(boolean track)
+    {
+        if(track && changedBits == null) {
+            changedBits = new long[(depth * width + 63) / 64];
+            changedCells = new int[1024];
+        }
+        trackChanges = track;
+        clearChanges();
+        allChanged = true;
+    }
+
+    /**
+     * @return true if changed positions are being recorded.
+     */
+    public boolean isTrackingChanges()
+    {
+        return trackChanges;
+    }
+
+    /**
+     * @return true if every position should be treated as changed,
+     *         either because too many have changed to list or because
+     *         changes were not being recorded.
+     */
+    public boolean isAllChanged()
+    {
+        return allChanged || !trackChanges;
+    }
+
+    /**
+     * @return The number of changed positions recorded.
+     */
+    public int getChangedCount()
+    {
+        return changedCount;
+    }
+
+    /**
+     * Return one of the changed positions.
+     * @param i Which change, from 0 to getChangedCount() - 1.
+     * @return The position as row * width + col.
+     */
+    public int getChangedCell(int i)
+    {
+        return changedCells[i];
+    }
+
+    /**
+     * Forget the changes recorded so far. This is called by the
+     * consumer of the changes once it has dealt with them.
+     */
+    public void clearChanges()
+    {
+        if(changedBits != null) {
+            if(allChanged) {
+                Arrays.fill(changedBits, 0);
+            }
+            else {
+                for(int i = 0; i < changedCount; i++) {
+                    changedBits[changedCells[i] >>> 6] = 0;
+                }
+            }
+        }
+        changedCount = 0;
+        allChanged = false;
+    }
+
+    /**
+     * Start or stop keeping counts of the animals of each species and
+     * gender around each position. Starting counts what the field
+     * holds already.
+     * @param count true to keep the counts.
+     */
+    public void setCountNeighbours(boolean count)
+    {
+        if(!count) {
+            neighbourCounts = null;
+        }
+        else if(neighbourCounts == null) {
+            neighbourCounts = new NeighbourCounts(depth, width);
+            for(int row = 0; row < depth; row++) {
+                for(int col = 0; col < width; col++) {
+                    Object occupant = getObjectAt(row, col);
+                    if(occupant != null) {
+                        neighbourCounts.added(occupant, row, col);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The counts of the animals around each position, or null
+     *         if they are not kept.
+     */
+    public NeighbourCounts getNeighbourCounts()
+    {
+        return neighbourCounts;
+    }
+
+    /**
+     * Choose whether animals find partners from the counts. The counts
+     * are kept while they are used for partners or for food.
+     * @param counted true to find partners from the counts.
+     */
+    public void setMatingCounts(boolean counted)
+    {
+        matingCounts = counted;
+        setCountNeighbours(matingCounts || foodCounts);
+    }
+
+    /**
+     * Choose whether animals find food from the counts. The counts are
+     * kept while they are used for partners or for food.
+     * @param counted true to find food from the counts.
+     */
+    public void setFoodCounts(boolean counted)
+    {
+        foodCounts = counted;
+        setCountNeighbours(matingCounts || foodCounts);
+    }
+
+    /**
+     * @return The counts, if animals find partners from them, and
+     *         otherwise null.
+     */
+    public NeighbourCounts getMatingCounts()
+    {
+        return matingCounts ? neighbourCounts : null;
+    }
+
+    /**
+     * @return The counts, if animals find food from them, and
+     *         otherwise null.
+     */
+    public NeighbourCounts getFoodCounts()
+    {
+        return foodCounts ? neighbourCounts : null;
+    }
+
+    /**
+     * Mark what the field holds, from now on, in the given bitboards,
+     * which may be shared with another field of the same size.
+     * @param bitboards The bitboards, or null to stop marking.
+     */
+    public void setBitboards(Bitboards bitboards)
+    {
+        this.bitboards = bitboards;
+        if(bitboards != null) {
+            for(int row = 0; row < depth; row++) {
+                for(int col = 0; col < width; col++) {
+                    Object occupant = getObjectAt(row, col);
+                    if(occupant != null) {
+                        bitboards.added(occupant, row, col);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The bitboards that mark what the field holds, or null.
+     */
+    public Bitboards getBitboards()
+    {
+        return bitboards;
+    }
+
+    /**
+     * Record that a position has changed.
+     */
+    private void markChanged(int row, int col)
+    {
+        if(!trackChanges || allChanged) {
+            return;
+        }
+        int index = row * width + col;
+        long bit = 1L << index;
+        int word = index >>> 6;
+        if((changedBits[word] & bit) == 0) {
+            changedBits[word] |= bit;
+            if(changedCount == changedCells.length) {
+                if(changedCount * 4 >= depth * width) {
+                    // Listing any more would cost more than a full redraw.
+                    allChanged = true;
+                    return;
+                }
+                changedCells = Arrays.copyOf(changedCells, changedCount * 2);
+            }
+            changedCells[changedCount++] = index;
+        }
     }
     
     /**
@@ -35,11 +453,21 @@ public class Field
      */
     public void clear()
     {
-        for(int row = 0; row < depth; row++) {
-            for(int col = 0; col < width; col++) {
-                field[row][col] = null;
+        if(bitboards != null) {
+            for(int row = 0; row < depth; row++) {
+                for(int col = 0; col < width; col++) {
+                    Object occupant = getObjectAt(row, col);
+                    if(occupant != null) {
+                        bitboards.removed(occupant, row, col);
+                    }
+                }
             }
         }
+        Arrays.fill(field, null);
+        if(neighbourCounts != null) {
+            neighbourCounts.clear();
+        }
+        allChanged = true;
     }
     
     /**
@@ -48,7 +476,17 @@ public class Field
      */
     public void clear(Location location)
     {
-        field[location.getRow()][location.getCol()] = null;
+        int index = storageIndex(location.getRow(), location.getCol());
+        if(field[index] != null) {
+            if(neighbourCounts != null) {
+                neighbourCounts.removed(field[index], location.getRow(), location.getCol());
+            }
+            if(bitboards != null) {
+                bitboards.removed(field[index], location.getRow(), location.getCol());
+            }
+        }
+        field[index] = null;
+        markChanged(location.getRow(), location.getCol());
     }
     
     /**
@@ -73,7 +511,58 @@ public class Field
      */
     public void place(Object animal, Location location)
     {
-        field[location.getRow()][location.getCol()] = animal;
+        int index = storageIndex(location.getRow(), location.getCol());
+        if(neighbourCounts != null) {
+            if(field[index] != null) {
+                neighbourCounts.removed(field[index], location.getRow(), location.getCol());
+            }
+            neighbourCounts.added(animal, location.getRow(), location.getCol());
+        }
+        if(bitboards != null) {
+            if(field[index] != null) {
+                bitboards.removed(field[index], location.getRow(), location.getCol());
+            }
+            bitboards.added(animal, location.getRow(), location.getCol());
+        }
+        field[index] = animal;
+        markChanged(location.getRow(), location.getCol());
+    }
+    
+    /**
+     * Fill an empty field in bulk, as from a checkpoint: put each
+     * occupant at its position without the bookkeeping place does for
+     * each one. Neighbour counts and bitboards, if kept, are brought up
+     * to date afterwards, and the whole field is treated as changed.
+     * @param occupants The occupants.
+     * @param cells The position of each occupant as row * width + col,
+     *              or -1 to leave it out.
+     * @param count The number of occupants.
+     */
+    public void fill(Object[] occupants, int[] cells, int count)
+    {
+        for(int i = 0; i < count; i++) {
+            int cell = cells[i];
+            if(cell >= 0) {
+                int index = layout == ROW_MAJOR ? cell : storageIndex(cell / width, cell % width);
+                field[index] = occupants[i];
+            }
+        }
+        if(neighbourCounts != null || bitboards != null) {
+            for(int i = 0; i < count; i++) {
+                int cell = cells[i];
+                if(cell >= 0) {
+                    int row = cell / width;
+                    int col = cell % width;
+                    if(neighbourCounts != null) {
+                        neighbourCounts.added(occupants[i], row, col);
+                    }
+                    if(bitboards != null) {
+                        bitboards.added(occupants[i], row, col);
+                    }
+                }
+            }
+        }
+        allChanged = true;
     }
     
     /**
@@ -94,7 +583,7 @@ public class Field
      */
     public Object getObjectAt(int row, int col)
     {
-        return field[row][col];
+        return field[storageIndex(row, col)];
     }
     
     /**
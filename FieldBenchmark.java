@@ -0,0 +1,163 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compare the storage layouts of Field on work that scans the
+ * neighbourhood of many positions, as animals do when they look for
+ * food, partners and free space. Each layout is given the same
+ * randomly filled field, and three workloads are timed:
+ *
+ * sweep       - every position in row order;
+ * random      - every occupied position in a random order, as when
+ *               animals act in the order they were born;
+ * curve       - every occupied position in Hilbert-curve order, as
+ *               with the grouped UpdateScheduler order.
+ *
+ * Each scan counts the occupied positions around one position. The
+ * time reported is the best of several runs, per position scanned.
+ *
+ * The layouts share the scanning code, so the one measured first
+ * shapes how the JIT compiles it for the others. For a fair comparison
+ * name a single layout and run each in its own JVM.
+ */
+public class FieldBenchmark
+{
+    // The default size of the field, on each side.
+    private static final int DEFAULT_SIZE = 4096;
+    // The default fraction of positions occupied.
+    private static final double DEFAULT_DENSITY = 0.3;
+    // The number of timed runs of each workload, after one to warm up.
+    private static final int RUNS = 3;
+    // The names of the layouts and workloads, for the report.
+    private static final String[] LAYOUT_NAMES = { "row-major", "morton", "tiled" };
+    private static final String[] WORKLOAD_NAMES = { "sweep", "random", "curve" };
+
+    // The neighbours counted by every scan, kept so that the scans
+    // cannot be optimised away.
+    private static long neighbours;
+
+    /**
+     * Run the benchmark. The optional arguments are the size of the
+     * field on each side, the fraction of it that is occupied, and the
+     * name of the one layout to measure.
+     */
+    public static void main(String[] args)
+    {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SIZE;
+        double density = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_DENSITY;
+        int firstLayout = Field.ROW_MAJOR;
+        int lastLayout = Field.TILED;
+        if(args.length > 2) {
+            firstLayout = Arrays.asList(LAYOUT_NAMES).indexOf(args[2]);
+            if(firstLayout < 0) {
+                System.out.println("Usage: FieldBenchmark [size] [density] [row-major|morton|tiled]");
+                return;
+            }
+            lastLayout = firstLayout;
+        }
+        Random random = new Random(42);
+
+        // The occupied positions, as row * size + col, and the same
+        // positions in the two orders in which they are visited.
+        boolean[] occupied = new boolean[size * size];
+        int count = 0;
+        for(int i = 0; i < occupied.length; i++) {
+            if(random.nextDouble() < density) {
+                occupied[i] = true;
+                count++;
+            }
+        }
+        int[] randomOrder = new int[count];
+        for(int i = 0, n = 0; i < occupied.length; i++) {
+            if(occupied[i]) {
+                randomOrder[n++] = i;
+            }
+        }
+        for(int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = randomOrder[i];
+            randomOrder[i] = randomOrder[j];
+            randomOrder[j] = t;
+        }
+        int[] curveOrder = curveOrder(randomOrder, size);
+        int[] sweepOrder = new int[size * size];
+        for(int i = 0; i < sweepOrder.length; i++) {
+            sweepOrder[i] = i;
+        }
+        int[][] orders = { sweepOrder, randomOrder, curveOrder };
+
+        System.out.printf("Field of %d by %d, %d occupied; ns per position scanned%n",
+                          size, size, count);
+        System.out.printf("%-10s", "");
+        for(String workload : WORKLOAD_NAMES) {
+            System.out.printf("%10s", workload);
+        }
+        System.out.println();
+        Object occupant = new Object();
+        for(int layout = firstLayout; layout <= lastLayout; layout++) {
+            Field field = new Field(size, size, layout);
+            for(int i = 0; i < occupied.length; i++) {
+                if(occupied[i]) {
+                    field.place(occupant, i / size, i % size);
+                }
+            }
+            System.out.printf("%-10s", LAYOUT_NAMES[layout]);
+            for(int[] order : orders) {
+                long best = Long.MAX_VALUE;
+                for(int run = 0; run <= RUNS; run++) {
+                    long start = System.nanoTime();
+                    neighbours += scan(field, order);
+                    long time = System.nanoTime() - start;
+                    if(run > 0) {
+                        best = Math.min(best, time);
+                    }
+                }
+                System.out.printf("%10.2f", (double) best / order.length);
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Count the occupied positions around each of the given positions.
+     * @return The total count.
+     */
+    private static long scan(Field field, int[] positions)
+    {
+        int depth = field.getDepth();
+        int width = field.getWidth();
+        long total = 0;
+        for(int position : positions) {
+            int row = position / width;
+            int col = position % width;
+            for(int r = Math.max(row - 1, 0); r <= Math.min(row + 1, depth - 1); r++) {
+                for(int c = Math.max(col - 1, 0); c <= Math.min(col + 1, width - 1); c++) {
+                    if((r != row || c != col) && field.getObjectAt(r, c) != null) {
+                        total++;
+                    }
+                }
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return The positions sorted along a Hilbert curve.
+     */
+    private static int[] curveOrder(int[] positions, int size)
+    {
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 1));
+        long[] keys = new long[positions.length];
+        for(int i = 0; i < positions.length; i++) {
+            int position = positions[i];
+            keys[i] = UpdateScheduler.hilbertIndex(position / size, position % size, bits) << 32
+                      | position;
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[positions.length];
+        for(int i = 0; i < keys.length; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,479 @@
+import java.util.Arrays;
+
+/**
+ * A copy of what a field holds at one step: the species tag of every
+ * location and the number of locations holding each species. A
+ * snapshot can be handed to another thread, for example for display,
+ * while the simulation carries on changing the field.
+ *
+ * Objects that are not a known species are given the tag UNKNOWN.
+ *
+ * A snapshot may also hold a plant layer taken from a second field:
+ * for each location, zero if there is no plant, or otherwise one plus
+ * the plant's shade. Plants all have the same shade unless shading by
+ * size is asked for.
+ *
+ * Each layer has a TagPyramid summarising it at coarser scales, kept
+ * up to date as the layer changes, so that a zoomed-out view need only
+ * read as many cells as it has pixels.
+ *
+ * Each layer also has a ChangeLog of the locations changed by its last
+ * few updates, so that a copy made from the snapshot shortly before
+ * can be brought up to date by copying just those locations and
+ * recomputing just the parts of the pyramid above them. A layer that
+ * was captured in full, or changed too much to log, is copied in full.
+ * With the default populations a third or more of the animal tags
+ * change at every step, so that layer is mostly copied in full, while
+ * the plant layer changes little and is mostly copied cell by cell.
+ */
+public class FieldSnapshot
+{
+    // The tag given to objects that are not a known species.
+    public static final int UNKNOWN = Species.count();
+    // The number of shades used for plants shaded by size.
+    public static final int PLANT_SHADES = 4;
+
+    // The dimensions of the field.
+    private final int depth, width;
+    // The tag at each location, in row order.
+    private final byte[] tags;
+    // The summary of tags at coarser scales.
+    private final TagPyramid tagPyramid;
+    // The number of locations with each tag.
+    private final int[] counts;
+    // The step at which the snapshot was taken.
+    private int step;
+    // The field most recently captured by update.
+    private Field source;
+    // The plant layer, or null if no plants have been captured.
+    private byte[] plants;
+    // The summary of the plant layer at coarser scales.
+    private TagPyramid plantPyramid;
+    // The plant field most recently captured by update.
+    private Field plantSource;
+    // Whether the plant layer is shaded by size.
+    private boolean shaded;
+    // The locations changed by recent updates, in each layer.
+    private final ChangeLog tagLog, plantLog;
+    // The snapshot this one was last copied from, and its version then.
+    private FieldSnapshot copied;
+    private int copiedVersion;
+
+    /**
+     * Create an empty snapshot for a field of the given size.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public FieldSnapshot(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        tags = new byte[depth * width];
+        tagPyramid = new TagPyramid(tags, depth, width);
+        counts = new int[UNKNOWN + 1];
+        counts[Species.NONE] = depth * width;
+        // Past this many changes, copying a whole layer is cheaper.
+        int limit = tags.length / 8;
+        tagLog = new ChangeLog(limit);
+        plantLog = new ChangeLog(limit);
+    }
+
+    /**
+     * Return the tag to store for the given object.
+     * @param entity An animal, a plant, or null.
+     * @return The species tag, or UNKNOWN.
+     */
+    public static int tagOf(Object entity)
+    {
+        int tag = Species.of(entity);
+        if(entity != null && tag == Species.NONE) {
+            return UNKNOWN;
+        }
+        return tag;
+    }
+
+    /**
+     * Record the whole of the field.
+     * @param step The current step.
+     * @param field The field to copy, of the same size as the snapshot.
+     */
+    public void capture(int step, Field field)
+    {
+        this.step = step;
+        startVersion();
+        // The plant count belongs to the plant layer, if there is one.
+        int plantCount = counts[Species.PLANT];
+        Arrays.fill(counts, 0);
+        for(int row = 0; row < depth; row++) {
+            int offset = row * width;
+            for(int col = 0; col < width; col++) {
+                int tag = tagOf(field.getObjectAt(row, col));
+                tags[offset + col] = (byte) tag;
+                counts[tag]++;
+            }
+        }
+        if(plants != null) {
+            counts[Species.PLANT] = plantCount;
+        }
+        tagPyramid.rebuild();
+        tagLog.drop();
+        source = field;
+    }
+
+    /**
+     * Record a grid of tags, such as a frame read from an archive, in
+     * place of a field. Only the locations that differ from the
+     * snapshot are changed. The plant layer is dropped; plants appear
+     * in the grid under their own tag.
+     * @param step The step the grid shows.
+     * @param grid The tags, in row order, for a field of the snapshot's
+     *             size. Tags outside the known range count as UNKNOWN.
+     */
+    public void capture(int step, byte[] grid)
+    {
+        this.step = step;
+        startVersion();
+        if(plants != null) {
+            counts[Species.PLANT] = 0;
+            plants = null;
+            plantPyramid = null;
+        }
+        // Past this many changes, rebuilding the pyramid is cheaper.
+        int limit = tags.length / 4;
+        int changed = 0;
+        for(int cell = 0; cell < tags.length; cell++) {
+            int tag = grid[cell];
+            if(tag < 0 || tag > UNKNOWN) {
+                tag = UNKNOWN;
+            }
+            if(tags[cell] != tag) {
+                counts[tags[cell]]--;
+                counts[tag]++;
+                setTag(cell, tag);
+                if(++changed <= limit) {
+                    tagPyramid.update(cell);
+                }
+            }
+        }
+        if(changed > limit) {
+            tagPyramid.rebuild();
+        }
+        source = null;
+    }
+
+    /**
+     * Bring the snapshot up to date with the field. If the field records
+     * its changes and was the last one captured, only the changed
+     * locations are copied, and the changes are then cleared.
+     * @param step The current step.
+     * @param field The field to copy, of the same size as the snapshot.
+     */
+    public void update(int step, Field field)
+    {
+        if(field != source || field.isAllChanged()) {
+            capture(step, field);
+        }
+        else {
+            this.step = step;
+            startVersion();
+            for(int i = 0; i < field.getChangedCount(); i++) {
+                int cell = field.getChangedCell(i);
+                int row = cell / width;
+                int tag = tagOf(field.getObjectAt(row, cell - row * width));
+                counts[tags[cell]]--;
+                counts[tag]++;
+                setTag(cell, tag);
+                tagPyramid.update(cell);
+            }
+        }
+        if(field.isTrackingChanges()) {
+            field.clearChanges();
+        }
+    }
+
+    /**
+     * Bring both layers of the snapshot up to date with the animal and
+     * plant fields. Where both layers must be captured in full, this is
+     * done in a single scan of the two fields. Plants shaded by size are
+     * always captured in full, since growth is not recorded as a change.
+     * @param step The current step.
+     * @param field The field holding the animals.
+     * @param plantField The field holding the plants.
+     * @param shadePlants true to shade plants by their size.
+     */
+    public void update(int step, Field field, Field plantField, boolean shadePlants)
+    {
+        createPlantLayer();
+        boolean animalsInFull = field != source || field.isAllChanged();
+        boolean plantsInFull = shadePlants || shadePlants != shaded ||
+                               plantField != plantSource || plantField.isAllChanged();
+        shaded = shadePlants;
+        if(animalsInFull && plantsInFull) {
+            captureLayers(step, field, plantField);
+            if(field.isTrackingChanges()) {
+                field.clearChanges();
+            }
+        }
+        else {
+            update(step, field);
+            if(plantsInFull) {
+                capturePlants(plantField);
+            }
+            else {
+                for(int i = 0; i < plantField.getChangedCount(); i++) {
+                    int cell = plantField.getChangedCell(i);
+                    int row = cell / width;
+                    setPlant(cell, plantField.getObjectAt(row, cell - row * width));
+                }
+            }
+        }
+        plantSource = plantField;
+        if(plantField.isTrackingChanges()) {
+            plantField.clearChanges();
+        }
+    }
+
+    /**
+     * Record the whole of both fields in one scan.
+     */
+    private void captureLayers(int step, Field field, Field plantField)
+    {
+        this.step = step;
+        startVersion();
+        Arrays.fill(counts, 0);
+        for(int row = 0; row < depth; row++) {
+            int offset = row * width;
+            for(int col = 0; col < width; col++) {
+                int tag = tagOf(field.getObjectAt(row, col));
+                tags[offset + col] = (byte) tag;
+                counts[tag]++;
+                Object plant = plantField.getObjectAt(row, col);
+                if(plant != null) {
+                    counts[Species.PLANT]++;
+                }
+                plants[offset + col] = (byte) plantLevel(plant);
+            }
+        }
+        tagPyramid.rebuild();
+        plantPyramid.rebuild();
+        tagLog.drop();
+        plantLog.drop();
+        source = field;
+    }
+
+    /**
+     * Record the whole of the plant field.
+     */
+    private void capturePlants(Field plantField)
+    {
+        counts[Species.PLANT] = 0;
+        for(int row = 0; row < depth; row++) {
+            int offset = row * width;
+            for(int col = 0; col < width; col++) {
+                Object plant = plantField.getObjectAt(row, col);
+                if(plant != null) {
+                    counts[Species.PLANT]++;
+                }
+                plants[offset + col] = (byte) plantLevel(plant);
+            }
+        }
+        plantPyramid.rebuild();
+        plantLog.drop();
+    }
+
+    /**
+     * Record the plant at one location, keeping the plant count.
+     */
+    private void setPlant(int cell, Object plant)
+    {
+        if(plants[cell] != 0) {
+            counts[Species.PLANT]--;
+        }
+        if(plant != null) {
+            counts[Species.PLANT]++;
+        }
+        setPlantLevel(cell, plantLevel(plant));
+        plantPyramid.update(cell);
+    }
+
+    /**
+     * Set the tag at one location, logging it if it changes.
+     */
+    private void setTag(int cell, int tag)
+    {
+        if(tags[cell] != tag) {
+            tags[cell] = (byte) tag;
+            tagLog.add(cell);
+        }
+    }
+
+    /**
+     * Set the plant layer at one location, logging it if it changes.
+     */
+    private void setPlantLevel(int cell, int level)
+    {
+        if(plants[cell] != level) {
+            plants[cell] = (byte) level;
+            plantLog.add(cell);
+        }
+    }
+
+    /**
+     * Start a new version of both layers.
+     */
+    private void startVersion()
+    {
+        tagLog.startVersion();
+        plantLog.startVersion();
+    }
+
+    /**
+     * Create the plant layer and its pyramid if they do not yet exist.
+     */
+    private void createPlantLayer()
+    {
+        if(plants == null) {
+            plants = new byte[depth * width];
+            plantPyramid = new TagPyramid(plants, depth, width);
+            // A copy may hold an older plant layer that the log
+            // does not lead from.
+            plantLog.drop();
+        }
+    }
+
+    /**
+     * @return The plant layer value for the given object.
+     */
+    private int plantLevel(Object plant)
+    {
+        if(plant == null) {
+            return 0;
+        }
+        if(shaded && plant instanceof Plant) {
+            double growth = ((Plant) plant).getGrowth();
+            return 1 + Math.min(PLANT_SHADES - 1, (int) (growth * PLANT_SHADES));
+        }
+        return 1 + PLANT_SHADES / 2;
+    }
+
+    /**
+     * Make this snapshot a copy of another of the same size. If this
+     * was last copied from the other snapshot, each layer whose log
+     * holds every change since then is brought up to date by copying
+     * only the changed locations and recomputing only the pyramid cells
+     * above them.
+     * @param other The snapshot to copy.
+     */
+    public void copyFrom(FieldSnapshot other)
+    {
+        boolean follows = copied == other;
+        copyLayer(tags, tagPyramid, other.tags, other.tagPyramid,
+                  follows ? other.tagLog.find(copiedVersion) : -1, other.tagLog);
+        if(other.plants == null) {
+            plants = null;
+            plantPyramid = null;
+        }
+        else {
+            int start = follows && plants != null ? other.plantLog.find(copiedVersion) : -1;
+            createPlantLayer();
+            copyLayer(plants, plantPyramid, other.plants, other.plantPyramid, start, other.plantLog);
+        }
+        System.arraycopy(other.counts, 0, counts, 0, counts.length);
+        step = other.step;
+        copied = other;
+        copiedVersion = other.tagLog.getVersion();
+    }
+
+    /**
+     * Copy one layer and its pyramid from another snapshot.
+     * @param start The first entry of the other's log to copy, or -1 to
+     *              copy the whole layer.
+     */
+    private static void copyLayer(byte[] layer, TagPyramid pyramid, byte[] from,
+                                  TagPyramid fromPyramid, int start, ChangeLog log)
+    {
+        if(start < 0) {
+            System.arraycopy(from, 0, layer, 0, layer.length);
+            pyramid.copyFrom(fromPyramid);
+            return;
+        }
+        for(int i = start; i < log.getSize(); i++) {
+            int cell = log.getCell(i);
+            if(layer[cell] != from[cell]) {
+                layer[cell] = from[cell];
+                pyramid.update(cell);
+            }
+        }
+    }
+
+    /**
+     * @return The step at which the snapshot was taken.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Return the tags of every location, in row order. The array
+     * belongs to the snapshot and must not be modified.
+     * @return The tag at each location.
+     */
+    public byte[] getTags()
+    {
+        return tags;
+    }
+
+    /**
+     * Return the plant layer, in row order. The array belongs to the
+     * snapshot and must not be modified.
+     * @return For each location, zero for no plant, otherwise one plus
+     *         the plant's shade; or null if there is no plant layer.
+     */
+    public byte[] getPlants()
+    {
+        return plants;
+    }
+
+    /**
+     * @return The summary of the tags at coarser scales.
+     */
+    public TagPyramid getTagPyramid()
+    {
+        return tagPyramid;
+    }
+
+    /**
+     * @return The summary of the plant layer at coarser scales, or null
+     *         if there is no plant layer.
+     */
+    public TagPyramid getPlantPyramid()
+    {
+        return plantPyramid;
+    }
+
+    /**
+     * @param tag A species tag, or UNKNOWN.
+     * @return The number of locations with that tag.
+     */
+    public int getCount(int tag)
+    {
+        return counts[tag];
+    }
+}
@@ -30,10 +30,20 @@ public class FieldStats
      */
     public String getPopulationDetails(Field field)
     {
-        StringBuffer buffer = new StringBuffer();
         if(!countsValid) {
             generateCounts(field);
         }
+        return getPopulationDetails();
+    }
+    
+    /**
+     * Get details of the counts most recently made, without looking
+     * at a field.
+     * @return A string describing the counts.
+     */
+    public String getPopulationDetails()
+    {
+        StringBuffer buffer = new StringBuffer();
         for(Class key : counters.keySet()) {
             Counter info = counters.get(key);
             buffer.append(info.getName());
@@ -62,6 +72,16 @@ public class FieldStats
      * @param animalClass The class of animal to increment.
      */
     public void incrementCount(Class animalClass)
+    {
+        incrementCount(animalClass, 1);
+    }
+
+    /**
+     * Increase the count for one class of animal.
+     * @param animalClass The class of animal to count.
+     * @param amount The number to add to the count.
+     */
+    public void incrementCount(Class<?> animalClass, int amount)
     {
         Counter count = counters.get(animalClass);
         if(count == null) {
@@ -70,7 +90,7 @@ public class FieldStats
             count = new Counter(animalClass.getName());
             counters.put(animalClass, count);
         }
-        count.increment();
+        count.add(amount);
     }
 
     /**
@@ -0,0 +1,195 @@
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Read back a stream of run-length encoded frames written by a
+ * FrameExporter, one frame at a time. Frames are decoded as they are
+ * read, so an archive of any length can be played back in constant
+ * memory and without running the simulation.
+ */
+public class FrameArchive implements Closeable
+{
+    // The stream being read.
+    private final DataInputStream in;
+    // The version of the stream format.
+    private final int version;
+    // The color of each tag, as RGB values.
+    private final int[] palette;
+    // The step, depth and width of the current frame.
+    private int step, depth, width;
+    // The tags of the current frame, in row order, or null before the
+    // first frame has been read.
+    private byte[] tags;
+    // Holds the encoded runs of a frame.
+    private byte[] runs;
+    // Holds the decoded XOR of a frame with the one before.
+    private byte[] difference;
+    // The number of frames read so far.
+    private int frameCount;
+
+    /**
+     * Open an archive and read its header.
+     * @param file The stream written by a FrameExporter.
+     * @throws IOException If the file cannot be read or is not a frame
+     *                     stream.
+     */
+    public FrameArchive(File file) throws IOException
+    {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if(in.readInt() != FrameExporter.STREAM_MAGIC) {
+                throw new IOException(file + " is not a frame stream");
+            }
+            version = in.readInt();
+            if(version < 1 || version > FrameExporter.STREAM_VERSION) {
+                throw new IOException("Unsupported frame stream version " + version);
+            }
+            palette = new int[in.readInt()];
+            for(int i = 0; i < palette.length; i++) {
+                palette[i] = in.readInt();
+            }
+        }
+        catch(IOException e) {
+            in.close();
+            throw e;
+        }
+        runs = new byte[0];
+    }
+
+    /**
+     * Read and decode the next frame.
+     * @return true if there was another frame, false at the end of the
+     *         archive.
+     * @throws IOException If the archive cannot be read or is corrupt.
+     */
+    public boolean next() throws IOException
+    {
+        int nextStep;
+        try {
+            nextStep = in.readInt();
+        }
+        catch(EOFException e) {
+            return false;
+        }
+        int nextDepth = in.readInt();
+        int nextWidth = in.readInt();
+        int kind = version >= 2 ? in.readUnsignedByte() : FrameExporter.KEY_FRAME;
+        int length = in.readInt();
+        if(nextDepth <= 0 || nextWidth <= 0 || length < 0) {
+            throw new IOException("Corrupt frame after step " + step);
+        }
+        if(runs.length < length) {
+            runs = new byte[length];
+        }
+        in.readFully(runs, 0, length);
+
+        int cells = nextDepth * nextWidth;
+        if(kind == FrameExporter.XOR_FRAME) {
+            if(tags == null || tags.length != cells) {
+                throw new IOException("Frame at step " + nextStep + " has no frame to follow");
+            }
+            if(difference == null || difference.length != cells) {
+                difference = new byte[cells];
+            }
+            decode(length, difference, nextStep);
+            for(int i = 0; i < cells; i++) {
+                tags[i] ^= difference[i];
+            }
+        }
+        else {
+            if(tags == null || tags.length != cells) {
+                tags = new byte[cells];
+            }
+            decode(length, tags, nextStep);
+        }
+        step = nextStep;
+        depth = nextDepth;
+        width = nextWidth;
+        frameCount++;
+        return true;
+    }
+
+    /**
+     * Decode runs that must fill the grid exactly.
+     */
+    private void decode(int length, byte[] grid, int frameStep) throws IOException
+    {
+        try {
+            if(RunLengthCodec.decode(runs, 0, length, grid) != grid.length) {
+                throw new IOException("Frame at step " + frameStep + " is incomplete");
+            }
+        }
+        catch(IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Frame at step " + frameStep + " is corrupt", e);
+        }
+    }
+
+    /**
+     * @return The step shown by the current frame.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * @return The depth of the current frame.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return The width of the current frame.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Return the species tags of the current frame, in row order. The
+     * array is reused for the next frame and must not be modified.
+     * @return The tags, or null before the first frame is read.
+     */
+    public byte[] getTags()
+    {
+        return tags;
+    }
+
+    /**
+     * @return The number of frames read so far.
+     */
+    public int getFrameCount()
+    {
+        return frameCount;
+    }
+
+    /**
+     * @param tag A species tag.
+     * @return The color the archive gives that tag.
+     */
+    public Color getColor(int tag)
+    {
+        if(tag < 0 || tag >= palette.length) {
+            return Color.GRAY;
+        }
+        return new Color(palette[tag]);
+    }
+
+    /**
+     * Close the archive.
+     * @throws IOException If it cannot be closed.
+     */
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
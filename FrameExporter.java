@@ -0,0 +1,351 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+/**
+ * A simulation observer that records the field every few steps, for
+ * making a recording of a long run. Each recorded frame is an indexed
+ * colour image with one pixel per location.
+ *
+ * Each location shows the species tag of its animal or, if it has none
+ * but has a plant, the plant tag.
+ *
+ * Frames are encoded on a pool of background threads and written in
+ * order by a single writer thread, either as a sequence of PNG files or
+ * as one stream of run-length encoded frames, which a FrameArchive can
+ * play back. In a stream, each frame after the first may instead hold
+ * the run-length encoded XOR of its tags with the previous frame's,
+ * which is mostly zero when little has changed. At most a fixed number of
+ * frames may be waiting; if the writer falls that far behind, further
+ * frames are dropped (and counted) so that the simulation thread never
+ * waits for the disk.
+ */
+public class FrameExporter implements SimulationObserver
+{
+    // Output formats.
+    public static final int PNG_SEQUENCE = 0;
+    public static final int RLE_STREAM = 1;
+    public static final int RLE_XOR_STREAM = 2;
+
+    // Kinds of frame in a stream.
+    public static final int KEY_FRAME = 0;
+    public static final int XOR_FRAME = 1;
+
+    // Identifies a run-length encoded frame stream.
+    public static final int STREAM_MAGIC = 0x50505246;   // "PPRF"
+    public static final int STREAM_VERSION = 2;
+    // The name of the stream within the output directory.
+    public static final String STREAM_NAME = "frames.rle";
+
+    // The number of frames that may wait to be written.
+    private static final int QUEUE_CAPACITY = 16;
+
+    // Where the frames are written.
+    private final File directory;
+    // One of the format constants.
+    private final int format;
+    // Record every interval'th step.
+    private final int interval;
+    // The colors of the species tags, as an indexed color model.
+    private final IndexColorModel colors;
+    // Encodes frames.
+    private final ExecutorService encoders;
+    // Encoded frames waiting to be written, in step order.
+    private final BlockingQueue<Future<EncodedFrame>> pending;
+    // Writes encoded frames.
+    private final Thread writer;
+    // The run-length stream, if that format is used.
+    private DataOutputStream stream;
+    // The number of frames dropped because the queue was full.
+    private volatile int dropped;
+    // The number of frames written so far.
+    private volatile int written;
+    // The first problem met by the writer, if any.
+    private volatile IOException failure;
+    // Whether close has been called.
+    private volatile boolean closed;
+    // The tags of the last frame queued, against which the next XOR
+    // frame is taken, or null.
+    private byte[] previousTags;
+
+    /**
+     * Create an exporter.
+     * @param directory The directory to write to; created if necessary.
+     * @param format PNG_SEQUENCE, RLE_STREAM or RLE_XOR_STREAM.
+     * @param interval Record a frame every this many steps.
+     * @throws IOException If the output cannot be created.
+     */
+    public FrameExporter(File directory, int format, int interval) throws IOException
+    {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.format = format;
+        this.interval = Math.max(1, interval);
+        colors = createColors();
+
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        encoders = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "frame-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        if(format != PNG_SEQUENCE) {
+            stream = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(new File(directory, STREAM_NAME))));
+        }
+        // Frames still waiting when the program exits are lost unless
+        // close has been called.
+        writer = new Thread(this::writeFrames, "frame-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Nothing happens at the start of a step.
+     */
+    public void stepStarted(int step)
+    {
+    }
+
+    /**
+     * Record the field if this is one of the steps to be kept.
+     */
+    public void stepFinished(int step, Field field, Field plantField)
+    {
+        if(closed || step % interval != 0) {
+            return;
+        }
+        if(pending.remainingCapacity() == 0) {
+            dropped++;
+            return;
+        }
+        int depth = field.getDepth();
+        int width = field.getWidth();
+        byte[] tags = new byte[depth * width];
+        for(int row = 0; row < depth; row++) {
+            int offset = row * width;
+            for(int col = 0; col < width; col++) {
+                int tag = FieldSnapshot.tagOf(field.getObjectAt(row, col));
+                if(tag == Species.NONE && plantField.getObjectAt(row, col) != null) {
+                    tag = Species.PLANT;
+                }
+                tags[offset + col] = (byte) tag;
+            }
+        }
+        byte[] previous = format == RLE_XOR_STREAM && previousTags != null
+                          && previousTags.length == tags.length ? previousTags : null;
+        Future<EncodedFrame> frame = encoders.submit(() -> encode(step, depth, width, tags, previous));
+        if(pending.offer(frame)) {
+            previousTags = tags;
+        }
+        else {
+            frame.cancel(false);
+            dropped++;
+        }
+    }
+
+    /**
+     * Nothing happens when the population changes.
+     */
+    public void populationChanged(int step, int[] counts)
+    {
+    }
+
+    /**
+     * Settling is not recorded in the frames.
+     */
+    public void settled(int step, String description)
+    {
+    }
+
+    /**
+     * Stop recording, wait for all waiting frames to be written and
+     * close the output.
+     * @throws IOException If any frame could not be written.
+     */
+    public void close() throws IOException
+    {
+        closed = true;
+        try {
+            writer.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        encoders.shutdown();
+        if(stream != null) {
+            stream.close();
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return The number of frames dropped because writing fell behind.
+     */
+    public int getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * @return The number of frames written.
+     */
+    public int getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * Encode one frame. Runs on an encoder thread.
+     * @param previous The tags of the previous frame, for an XOR frame,
+     *                 or null for a key frame.
+     * @return The frame in the output format.
+     */
+    private EncodedFrame encode(int step, int depth, int width, byte[] tags, byte[] previous)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if(format == PNG_SEQUENCE) {
+            BufferedImage image = new BufferedImage(width, depth,
+                                                    BufferedImage.TYPE_BYTE_INDEXED, colors);
+            byte[] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(tags, 0, pixels, 0, tags.length);
+            ImageIO.write(image, "png", bytes);
+        }
+        else {
+            byte[] grid = tags;
+            if(previous != null) {
+                grid = new byte[tags.length];
+                for(int i = 0; i < tags.length; i++) {
+                    grid[i] = (byte) (tags[i] ^ previous[i]);
+                }
+            }
+            byte[] runs = RunLengthCodec.encode(grid, grid.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(step);
+            out.writeInt(depth);
+            out.writeInt(width);
+            out.writeByte(previous != null ? XOR_FRAME : KEY_FRAME);
+            out.writeInt(runs.length);
+            out.write(runs);
+        }
+        return new EncodedFrame(step, bytes.toByteArray());
+    }
+
+    /**
+     * Write encoded frames in the order they were recorded until the
+     * exporter is closed and nothing is waiting. Runs on the writer
+     * thread.
+     */
+    private void writeFrames()
+    {
+        try {
+            if(stream != null) {
+                writeStreamHeader();
+            }
+            while(!closed || !pending.isEmpty()) {
+                Future<EncodedFrame> frame = pending.poll(50, TimeUnit.MILLISECONDS);
+                if(frame != null) {
+                    write(frame.get());
+                    written++;
+                }
+            }
+        }
+        catch(IOException e) {
+            failure = e;
+        }
+        catch(ExecutionException e) {
+            failure = new IOException("Frame could not be encoded", e.getCause());
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Write the stream header: format and palette. Each frame that
+     * follows holds its step, depth, width, kind and the length of its
+     * runs, then the runs.
+     */
+    private void writeStreamHeader() throws IOException
+    {
+        stream.writeInt(STREAM_MAGIC);
+        stream.writeInt(STREAM_VERSION);
+        stream.writeInt(colors.getMapSize());
+        for(int i = 0; i < colors.getMapSize(); i++) {
+            stream.writeInt(colors.getRGB(i));
+        }
+    }
+
+    /**
+     * Write one encoded frame.
+     */
+    private void write(EncodedFrame frame) throws IOException
+    {
+        if(format == PNG_SEQUENCE) {
+            File file = new File(directory, String.format("frame-%06d.png", frame.step));
+            try(FileOutputStream out = new FileOutputStream(file)) {
+                out.write(frame.data);
+            }
+        }
+        else {
+            stream.write(frame.data);
+        }
+    }
+
+    /**
+     * @return A color model mapping each species tag to its color.
+     */
+    private static IndexColorModel createColors()
+    {
+        int size = FieldSnapshot.UNKNOWN + 1;
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        for(int tag = 0; tag < size; tag++) {
+            Color color = Species.getColor(tag);
+            r[tag] = (byte) color.getRed();
+            g[tag] = (byte) color.getGreen();
+            b[tag] = (byte) color.getBlue();
+        }
+        return new IndexColorModel(8, size, r, g, b);
+    }
+
+    /**
+     * A frame encoded in the output format, with the step it shows.
+     */
+    private static class EncodedFrame
+    {
+        final int step;
+        final byte[] data;
+
+        EncodedFrame(int step, byte[] data)
+        {
+            this.step = step;
+            this.data = data;
+        }
+    }
+}
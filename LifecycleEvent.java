@@ -0,0 +1,38 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event describing one birth or death in the simulation.
+ * Instances are created by EventTracer.exportToJfr from its trace
+ * records; they carry the simulation step rather than relying on the
+ * event's own timestamp.
+ */
+@Name("simulator.Lifecycle")
+@Label("Lifecycle")
+@Category("Predator Prey Simulator")
+@Description("A birth or death in the simulation")
+public class LifecycleEvent extends jdk.jfr.Event
+{
+    @Label("Step")
+    int step;
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Cause")
+    String cause;
+
+    @Label("Species")
+    String species;
+
+    @Label("Killer")
+    String killer;
+
+    @Label("Row")
+    int row;
+
+    @Label("Column")
+    int col;
+}
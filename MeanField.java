@@ -0,0 +1,550 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A coarse model of the parts of the world outside a region of
+ * interest. The field is divided into square blocks of BLOCK_SIZE
+ * positions on a side. Blocks inside the region hold animals and plants
+ * that act as usual; every other block holds only the expected number
+ * of each species, which changes once a step by aggregate rates worked
+ * out from the SpeciesTraits and the Plant constants:
+ *
+ * eating    - an animal eats if any of its 8 neighbours holds food,
+ *             each being food with the block's density of its diet;
+ *             what is eaten is taken from each kind of food in
+ *             proportion to its density.
+ * births    - an animal of breeding age breeds if a neighbour is of its
+ *             species and the opposite gender, with its breeding
+ *             probability and an average litter, as far as its free
+ *             neighbours allow; a mature plant spreads an average of two
+ *             saplings, as far as the positions around it free of plants
+ *             allow.
+ * deaths    - each dies of old age at one over its maximum age a step,
+ *             an animal starves at a rate that is one over its full
+ *             food level when it never eats and falls off as it eats
+ *             more often, and one that has not eaten dies of
+ *             overcrowding if all its neighbours are occupied.
+ * movement  - an animal moves one position a step, so a fraction of
+ *             3 / (8 * BLOCK_SIZE) of a block's animals crosses each of
+ *             its sides; the same fraction of each block's new saplings
+ *             lands beyond each side.
+ *
+ * The flux across the edge of the region is carried by individuals.
+ * Animals and plants that end a step outside the region are taken out
+ * of the fields and added to the numbers of their block, and what a
+ * coarse block sends across a side into the region arrives as new
+ * individuals at free positions along that side, the fractional part
+ * of the flux arriving with that probability. Those that find no free
+ * position along the side stay in the numbers of the block that sent
+ * them.
+ *
+ * The region's animals do not see food or partners beyond its edge,
+ * and the coarse blocks are not shown in the view.
+ */
+public class MeanField
+{
+    // The size of a block, on each side.
+    public static final int BLOCK_SIZE = 16;
+    // The number of positions around each one.
+    private static final int NEIGHBOURS = 8;
+    // The fraction of a block's animals that crosses each side a step.
+    private static final double CROSSING = 3.0 / (NEIGHBOURS * BLOCK_SIZE);
+    // The average number of saplings a plant tries to spread.
+    private static final double SAPLINGS = 2.0;
+    // The steps to the block beside another on each side, as rows and
+    // columns.
+    private static final int[][] SIDES = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+
+    // The depth and width of the field, and of the grid of blocks.
+    private final int depth, width;
+    private final int blockRows, blockCols;
+    // The region of interest, in blocks: rows from top up to but not
+    // including bottom, and columns from left up to but not including
+    // right.
+    private final int top, left, bottom, right;
+    // The expected number of each species in each block, indexed by
+    // tag and then by blockRow * blockCols + blockCol. Zero inside the
+    // region.
+    private double[][] numbers;
+    // The numbers for the next step, while they are worked out.
+    private double[][] next;
+    // What the coarse blocks send into each block of the region across
+    // each of its sides, indexed by tag and then by the block's index in
+    // the region times the number of sides, plus the side.
+    private final double[][] inflow;
+    // A shared random number generator.
+    private final Random rand = Randomizer.getRandom();
+
+    /**
+     * Create a model in which only the given region is simulated
+     * individually. The region is widened to whole blocks.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param top The first row of the region.
+     * @param left The first column of the region.
+     * @param bottom The row below the last row of the region.
+     * @param right The column after the last column of the region.
+     */
+    public MeanField(int depth, int width, int top, int left, int bottom, int right)
+    {
+        if(top < 0 || left < 0 || bottom > depth || right > width
+                || top >= bottom || left >= right) {
+            throw new IllegalArgumentException("Region " + top + "," + left + " to "
+                                               + bottom + "," + right
+                                               + " is not within the field");
+        }
+        this.depth = depth;
+        this.width = width;
+        blockRows = (depth + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockCols = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.top = top / BLOCK_SIZE;
+        this.left = left / BLOCK_SIZE;
+        this.bottom = (bottom + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.right = (right + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        numbers = new double[Species.count()][blockRows * blockCols];
+        next = new double[Species.count()][blockRows * blockCols];
+        inflow = new double[Species.count()]
+                           [(this.bottom - this.top) * (this.right - this.left) * SIDES.length];
+    }
+
+    /**
+     * @param row A row of the field.
+     * @param col A column of the field.
+     * @return true if the position is in the region of interest.
+     */
+    public boolean isInRegion(int row, int col)
+    {
+        return isRegionBlock(row / BLOCK_SIZE, col / BLOCK_SIZE);
+    }
+
+    /**
+     * @return The first row of the region, widened to whole blocks.
+     */
+    public int getRegionTop()
+    {
+        return top * BLOCK_SIZE;
+    }
+
+    /**
+     * @return The first column of the region, widened to whole blocks.
+     */
+    public int getRegionLeft()
+    {
+        return left * BLOCK_SIZE;
+    }
+
+    /**
+     * @return The row below the last row of the region, widened to
+     *         whole blocks.
+     */
+    public int getRegionBottom()
+    {
+        return Math.min(bottom * BLOCK_SIZE, depth);
+    }
+
+    /**
+     * @return The column after the last column of the region, widened
+     *         to whole blocks.
+     */
+    public int getRegionRight()
+    {
+        return Math.min(right * BLOCK_SIZE, width);
+    }
+
+    /**
+     * Add to the numbers of every coarse block a number of a species
+     * drawn as if each of its positions held one with the given
+     * probability, from the normal approximation to the binomial, so
+     * that the blocks vary as much as a populated field would.
+     * @param tag A species tag.
+     * @param density The probability of a position holding one.
+     */
+    public void fill(int tag, double density)
+    {
+        for(int blockRow = 0; blockRow < blockRows; blockRow++) {
+            double rows = Math.min(BLOCK_SIZE, depth - blockRow * BLOCK_SIZE);
+            for(int blockCol = 0; blockCol < blockCols; blockCol++) {
+                if(!isRegionBlock(blockRow, blockCol)) {
+                    double cells = rows * Math.min(BLOCK_SIZE, width - blockCol * BLOCK_SIZE);
+                    double mean = cells * density;
+                    double spread = Math.sqrt(mean * (1 - density));
+                    double number = Math.rint(mean + spread * rand.nextGaussian());
+                    numbers[tag][blockRow * blockCols + blockCol] +=
+                        Math.min(Math.max(number, 0), cells);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param tag A species tag.
+     * @return The expected number of the species outside the region.
+     */
+    public double getPopulation(int tag)
+    {
+        double total = 0;
+        for(double number : numbers[tag]) {
+            total += number;
+        }
+        return total;
+    }
+
+    /**
+     * @return A copy of the numbers of every block, those of each
+     *         species after those of the species before it.
+     */
+    public double[] getNumbers()
+    {
+        int blocks = blockRows * blockCols;
+        double[] copy = new double[numbers.length * blocks];
+        for(int tag = 0; tag < numbers.length; tag++) {
+            System.arraycopy(numbers[tag], 0, copy, tag * blocks, blocks);
+        }
+        return copy;
+    }
+
+    /**
+     * Replace the numbers of every block with those given by
+     * getNumbers.
+     * @param copy The numbers.
+     */
+    public void setNumbers(double[] copy)
+    {
+        int blocks = blockRows * blockCols;
+        if(copy.length != numbers.length * blocks) {
+            throw new IllegalArgumentException("Expected " + numbers.length * blocks
+                                               + " numbers, not " + copy.length);
+        }
+        for(int tag = 0; tag < numbers.length; tag++) {
+            System.arraycopy(copy, tag * blocks, numbers[tag], 0, blocks);
+        }
+    }
+
+    /**
+     * Forget the numbers of every block.
+     */
+    public void clear()
+    {
+        for(double[] block : numbers) {
+            Arrays.fill(block, 0);
+        }
+    }
+
+    /**
+     * Take the animals and plants that are outside the region out of
+     * the fields and the lists, and add them to the numbers of their
+     * blocks.
+     * @param animals The animals.
+     * @param plants The plants.
+     */
+    public void absorb(List<Animal> animals, List<Plant> plants)
+    {
+        animals.removeIf(animal -> {
+            Location location = animal.getLocation();
+            if(animal.isAlive() && location != null
+                    && !isInRegion(location.getRow(), location.getCol())) {
+                numbers[animal.getSpecies()][blockOf(location)]++;
+                animal.withdraw();
+                return true;
+            }
+            return false;
+        });
+        plants.removeIf(plant -> {
+            Location location = plant.getLocation();
+            if(plant.isAlive() && location != null
+                    && !isInRegion(location.getRow(), location.getCol())) {
+                numbers[Species.PLANT][blockOf(location)]++;
+                plant.withdraw();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Run one daytime step of the coarse blocks, after the region has
+     * acted: absorb what has left the region, update the numbers of the
+     * blocks, and let their flux into the region arrive.
+     * @param animals The animals; those that leave the region are removed.
+     * @param plants The plants; those that leave the region are removed.
+     * @param field The field of animals.
+     * @param plantField The field of plants.
+     * @param newAnimals Receives the animals that arrive in the region.
+     * @param newPlants Receives the plants that arrive in the region.
+     */
+    public void step(List<Animal> animals, List<Plant> plants, Field field, Field plantField,
+                     List<Animal> newAnimals, List<Plant> newPlants)
+    {
+        absorb(animals, plants);
+        for(double[] block : next) {
+            Arrays.fill(block, 0);
+        }
+        for(int blockRow = 0; blockRow < blockRows; blockRow++) {
+            for(int blockCol = 0; blockCol < blockCols; blockCol++) {
+                if(!isRegionBlock(blockRow, blockCol)) {
+                    stepBlock(blockRow, blockCol);
+                }
+            }
+        }
+        double[][] swap = numbers;
+        numbers = next;
+        next = swap;
+        // Let what was sent into the region arrive along each side of
+        // its blocks; what finds no room goes back to the sender.
+        for(int blockRow = top; blockRow < bottom; blockRow++) {
+            for(int blockCol = left; blockCol < right; blockCol++) {
+                int index = regionIndex(blockRow, blockCol) * SIDES.length;
+                for(int tag = 1; tag < numbers.length; tag++) {
+                    for(int side = 0; side < SIDES.length; side++) {
+                        double number = inflow[tag][index + side];
+                        if(number > 0) {
+                            int count = round(number);
+                            int unplaced = count - arrive(tag, count, blockRow, blockCol, side,
+                                                          field, plantField,
+                                                          newAnimals, newPlants);
+                            int sender = (blockRow + SIDES[side][0]) * blockCols
+                                         + blockCol + SIDES[side][1];
+                            numbers[tag][sender] += unplaced;
+                            inflow[tag][index + side] = 0;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Create individuals at random free positions of every coarse
+     * block, as many as its numbers with the fractions rounded at
+     * random, and forget the numbers.
+     * @param field The field of animals.
+     * @param plantField The field of plants.
+     * @param newAnimals Receives the animals created.
+     * @param newPlants Receives the plants created.
+     */
+    public void release(Field field, Field plantField,
+                        List<Animal> newAnimals, List<Plant> newPlants)
+    {
+        for(int blockRow = 0; blockRow < blockRows; blockRow++) {
+            for(int blockCol = 0; blockCol < blockCols; blockCol++) {
+                int block = blockRow * blockCols + blockCol;
+                for(int tag = 1; tag < numbers.length; tag++) {
+                    int count = round(numbers[tag][block]);
+                    Field into = tag == Species.PLANT ? plantField : field;
+                    int rowStart = blockRow * BLOCK_SIZE;
+                    int colStart = blockCol * BLOCK_SIZE;
+                    int rows = Math.min(BLOCK_SIZE, depth - rowStart);
+                    int cols = Math.min(BLOCK_SIZE, width - colStart);
+                    // Try the positions of the block from a random one on.
+                    int first = rand.nextInt(rows * cols);
+                    for(int i = 0; i < rows * cols && count > 0; i++) {
+                        int cell = (first + i) % (rows * cols);
+                        Location location = new Location(rowStart + cell / cols,
+                                                         colStart + cell % cols);
+                        if(into.getObjectAt(location) == null) {
+                            create(tag, field, plantField, location, newAnimals, newPlants);
+                            count--;
+                        }
+                    }
+                    numbers[tag][block] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Work out the next numbers of a coarse block, and send its share of
+     * movers and saplings to the blocks beside it.
+     */
+    private void stepBlock(int blockRow, int blockCol)
+    {
+        int block = blockRow * blockCols + blockCol;
+        double cells = (double) Math.min(BLOCK_SIZE, depth - blockRow * BLOCK_SIZE)
+                       * Math.min(BLOCK_SIZE, width - blockCol * BLOCK_SIZE);
+        int species = numbers.length;
+        double[] density = new double[species];
+        double occupied = 0;
+        for(int tag = 1; tag < species; tag++) {
+            density[tag] = numbers[tag][block] / cells;
+            if(tag != Species.PLANT) {
+                occupied += density[tag];
+            }
+        }
+        occupied = Math.min(occupied, 1);
+        double free = 1 - occupied;
+
+        // Work out what each species eats, and take it from its food.
+        double[] eaten = new double[species];
+        double[] fed = new double[species];
+        for(int tag = 1; tag < species; tag++) {
+            SpeciesTraits traits = SpeciesTraits.of(tag);
+            if(traits == null || numbers[tag][block] == 0) {
+                continue;
+            }
+            double food = 0;
+            for(int diet = traits.getDietMask(); diet != 0; diet &= diet - 1) {
+                food += density[Integer.numberOfTrailingZeros(diet)];
+            }
+            if(food <= 0) {
+                continue;
+            }
+            fed[tag] = 1 - Math.pow(1 - Math.min(food, 1), NEIGHBOURS);
+            double meals = numbers[tag][block] * fed[tag];
+            for(int diet = traits.getDietMask(); diet != 0; diet &= diet - 1) {
+                int prey = Integer.numberOfTrailingZeros(diet);
+                eaten[prey] += meals * density[prey] / food;
+            }
+        }
+
+        // The next number of each species, and how many of them cross
+        // each side.
+        double[] result = new double[species];
+        double[] crossing = new double[species];
+        double animals = 0;
+        for(int tag = 1; tag < species; tag++) {
+            double number = numbers[tag][block];
+            if(number == 0) {
+                continue;
+            }
+            SpeciesTraits traits = SpeciesTraits.of(tag);
+            if(traits != null) {
+                int maxAge = traits.getMaxAge();
+                double adult = Math.max(0, maxAge - traits.getBreedingAge()) / (double) maxAge;
+                double partner = 1 - Math.pow(1 - Math.min(density[tag] / 2, 1), NEIGHBOURS);
+                double litter = (traits.getMaxLitterSize() + 1) / 2.0;
+                double births = number * adult * partner * traits.getBreedingProbability()
+                                * Math.min(litter, NEIGHBOURS * free);
+                int full = traits.getFullFoodLevel();
+                double starving = Math.pow(1 - fed[tag], full) / full;
+                double crowded = (1 - fed[tag]) * Math.pow(occupied, NEIGHBOURS);
+                double deaths = number * (1.0 / maxAge + starving + crowded);
+                result[tag] = Math.max(0, number - deaths - eaten[tag]) + births;
+                animals += result[tag];
+            }
+            else {
+                double mature = (Plant.MAX_GROWTH - Plant.GROWTH_AGE) / (double) Plant.MAX_GROWTH;
+                double births = number * mature * Plant.GROWTH_PROBABILITY
+                                * Math.min(SAPLINGS, NEIGHBOURS * (1 - Math.min(density[tag], 1)));
+                double deaths = number / Plant.MAX_GROWTH;
+                result[tag] = Math.min(Math.max(0, number - deaths - eaten[tag]) + births, cells);
+                // Saplings spread across the sides; plants stay put.
+                crossing[tag] = Math.min(CROSSING * births, result[tag] / SIDES.length);
+            }
+        }
+        // Keep the animals to one per position.
+        double scale = animals > cells ? cells / animals : 1;
+        for(int tag = 1; tag < species; tag++) {
+            if(tag != Species.PLANT) {
+                result[tag] *= scale;
+                crossing[tag] = CROSSING * result[tag];
+            }
+        }
+
+        // Send movers across each side that has a block beyond it.
+        for(int tag = 1; tag < species; tag++) {
+            double number = result[tag];
+            for(int side = 0; side < SIDES.length; side++) {
+                int row = blockRow + SIDES[side][0];
+                int col = blockCol + SIDES[side][1];
+                if(row >= 0 && row < blockRows && col >= 0 && col < blockCols) {
+                    if(isRegionBlock(row, col)) {
+                        // Seen from the region block, the sender is on
+                        // the opposite side.
+                        inflow[tag][regionIndex(row, col) * SIDES.length + (side ^ 1)]
+                            += crossing[tag];
+                    }
+                    else {
+                        next[tag][row * blockCols + col] += crossing[tag];
+                    }
+                    number -= crossing[tag];
+                }
+            }
+            next[tag][block] += number;
+        }
+    }
+
+    /**
+     * Let a number of a species arrive in a block of the region from
+     * the coarse block beside one of its sides, at free positions along
+     * that side.
+     * @return The number that found room.
+     */
+    private int arrive(int tag, int count, int blockRow, int blockCol, int side,
+                       Field field, Field plantField,
+                       List<Animal> newAnimals, List<Plant> newPlants)
+    {
+        Field into = tag == Species.PLANT ? plantField : field;
+        int rowStart = blockRow * BLOCK_SIZE;
+        int colStart = blockCol * BLOCK_SIZE;
+        int rowEnd = Math.min(rowStart + BLOCK_SIZE, depth) - 1;
+        int colEnd = Math.min(colStart + BLOCK_SIZE, width) - 1;
+        // The positions along the side, as a first one and a step.
+        int row = SIDES[side][0] > 0 ? rowEnd : rowStart;
+        int col = SIDES[side][1] > 0 ? colEnd : colStart;
+        boolean across = SIDES[side][0] != 0;
+        int length = across ? colEnd - colStart + 1 : rowEnd - rowStart + 1;
+        int placed = 0;
+        int first = rand.nextInt(length);
+        for(int i = 0; i < length && placed < count; i++) {
+            int offset = (first + i) % length;
+            Location location = across ? new Location(row, colStart + offset)
+                                       : new Location(rowStart + offset, col);
+            if(into.getObjectAt(location) == null) {
+                create(tag, field, plantField, location, newAnimals, newPlants);
+                placed++;
+            }
+        }
+        return placed;
+    }
+
+    /**
+     * Create an individual of a species, with a random age for an
+     * animal and as a sapling for a plant.
+     */
+    private void create(int tag, Field field, Field plantField, Location location,
+                        List<Animal> newAnimals, List<Plant> newPlants)
+    {
+        if(tag == Species.PLANT) {
+            newPlants.add(new Plant(false, plantField, location));
+        }
+        else {
+            newAnimals.add((Animal) Species.create(tag, true, field, plantField, location));
+        }
+    }
+
+    /**
+     * @return A number rounded down, or up with a probability of its
+     *         fractional part.
+     */
+    private int round(double number)
+    {
+        int whole = (int) number;
+        return whole + (rand.nextDouble() < number - whole ? 1 : 0);
+    }
+
+    /**
+     * @return Whether a block is in the region of interest.
+     */
+    private boolean isRegionBlock(int blockRow, int blockCol)
+    {
+        return blockRow >= top && blockRow < bottom && blockCol >= left && blockCol < right;
+    }
+
+    /**
+     * @return The index of a block of the region among the region's
+     *         blocks.
+     */
+    private int regionIndex(int blockRow, int blockCol)
+    {
+        return (blockRow - top) * (right - left) + blockCol - left;
+    }
+
+    /**
+     * @return The index of the block holding a location.
+     */
+    private int blockOf(Location location)
+    {
+        return location.getRow() / BLOCK_SIZE * blockCols + location.getCol() / BLOCK_SIZE;
+    }
+}
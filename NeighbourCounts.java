@@ -0,0 +1,140 @@
+import java.util.Arrays;
+
+/**
+ * Count, for every position of a field, how many of the positions
+ * around it hold an animal of each species and gender, or a plant.
+ * There is one plane of counts for each (species, gender) pair; plants
+ * are all counted in the plane of Species.PLANT and the female gender.
+ *
+ * The counts are kept up to date as animals are placed and cleared:
+ * each change adds or takes one from the eight positions around the one
+ * that changed, in the animal's plane. Whether an animal has a partner
+ * next to it is then a single read of its own position in the plane of
+ * its species and the opposite gender, and whether it has food next to
+ * it is a read of the planes of the species it eats.
+ *
+ * A plane is only made when something is first counted in it, so the
+ * field of plants, which holds nothing but plants, keeps one plane and
+ * the field of animals none for plants.
+ */
+public class NeighbourCounts
+{
+    // The depth and width of the field counted.
+    private final int depth, width;
+    // The counts of each plane in row order, or null for a plane in
+    // which nothing has been counted.
+    private final byte[][] planes;
+
+    /**
+     * Create counts for a field with nothing in it.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     */
+    public NeighbourCounts(int depth, int width)
+    {
+        this.depth = depth;
+        this.width = width;
+        planes = new byte[2 * Species.count()][];
+    }
+
+    /**
+     * Return the plane of a species and gender.
+     * @param species The species tag.
+     * @param male true for males.
+     * @return The plane.
+     */
+    public static int plane(int species, boolean male)
+    {
+        return 2 * species + (male ? 1 : 0);
+    }
+
+    /**
+     * Return the plane an occupant of the field is counted in.
+     * @param occupant What is at a position.
+     * @return Its plane, or -1 if it is not counted.
+     */
+    public static int planeOf(Object occupant)
+    {
+        if(occupant instanceof Animal) {
+            Animal animal = (Animal) occupant;
+            return plane(animal.getSpecies(), animal.getGender());
+        }
+        else if(occupant instanceof Plant) {
+            return plane(Species.PLANT, false);
+        }
+        return -1;
+    }
+
+    /**
+     * Return how many positions around the given one hold animals of a
+     * plane. The position itself is not counted.
+     * @param plane The plane of a species and gender.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     * @return The number of neighbours in the plane, from 0 to 8.
+     */
+    public int get(int plane, int row, int col)
+    {
+        byte[] counts = planes[plane];
+        return counts == null ? 0 : counts[row * width + col];
+    }
+
+    /**
+     * Note that an occupant has been placed at a position.
+     * @param occupant What was placed.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     */
+    public void added(Object occupant, int row, int col)
+    {
+        int plane = planeOf(occupant);
+        if(plane >= 0) {
+            adjust(plane, row, col, 1);
+        }
+    }
+
+    /**
+     * Note that an occupant has been cleared from a position.
+     * @param occupant What was cleared.
+     * @param row The row of the position.
+     * @param col The column of the position.
+     */
+    public void removed(Object occupant, int row, int col)
+    {
+        int plane = planeOf(occupant);
+        if(plane >= 0) {
+            adjust(plane, row, col, -1);
+        }
+    }
+
+    /**
+     * Set every count to zero.
+     */
+    public void clear()
+    {
+        for(byte[] counts : planes) {
+            if(counts != null) {
+                Arrays.fill(counts, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Add a change to the counts of the positions around one.
+     */
+    private void adjust(int plane, int row, int col, int change)
+    {
+        byte[] counts = planes[plane];
+        if(counts == null) {
+            counts = new byte[depth * width];
+            planes[plane] = counts;
+        }
+        for(int r = Math.max(row - 1, 0); r <= Math.min(row + 1, depth - 1); r++) {
+            for(int c = Math.max(col - 1, 0); c <= Math.min(col + 1, width - 1); c++) {
+                if(r != row || c != col) {
+                    counts[r * width + c] += change;
+                }
+            }
+        }
+    }
+}
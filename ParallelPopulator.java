@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Populate a large field at random using several threads. The field is
+ * divided into bands of a fixed number of rows, each filled on a
+ * fork-join pool with its own random generator seeded from a single
+ * seed and the band's number. Because the bands and their generators do
+ * not depend on the number of threads, the same seed always gives the
+ * same world.
+ *
+ * Each location is filled as by the sequential populate: a plant with
+ * the plant probability, and then each kind of animal tried in turn
+ * with its own probability until one is placed. The animals and plants
+ * are listed in row order.
+ */
+public class ParallelPopulator
+{
+    // The number of rows in each band.
+    private static final int BAND_ROWS = 64;
+    // Mixes the band number into the seed.
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    // The probability that a plant is created at any location.
+    private final double plantProbability;
+    // The species tags of the animals, in the order they are tried.
+    private final int[] animalTags;
+    // The probability of creating each animal when it is tried.
+    private final double[] animalProbabilities;
+
+    /**
+     * Create a populator.
+     * @param plantProbability The probability of a plant at a location.
+     * @param animalTags The species of animal, in the order tried.
+     * @param animalProbabilities The probability of each animal species
+     *                            when it is tried.
+     */
+    public ParallelPopulator(double plantProbability, int[] animalTags,
+                             double[] animalProbabilities)
+    {
+        this.plantProbability = plantProbability;
+        this.animalTags = animalTags.clone();
+        this.animalProbabilities = animalProbabilities.clone();
+    }
+
+    /**
+     * Clear the fields and fill them at random.
+     * @param seed The seed from which every band's generator is derived.
+     * @param field The field of animals.
+     * @param plantField The field of plants, of the same size.
+     * @param animals Receives the animals, in row order.
+     * @param plants Receives the plants, in row order.
+     * @param pool The pool to fill the bands on.
+     */
+    public void populate(long seed, Field field, Field plantField,
+                         List<Animal> animals, List<Plant> plants, ForkJoinPool pool)
+    {
+        // Clearing marks every location as changed, so placing records
+        // nothing more. Neighbour counts and bitboard masks are updated
+        // around each position placed, which reaches into the rows of
+        // the next band, so they are turned off while the bands are
+        // filled at the same time and rebuilt afterwards. What is left
+        // is written only in the band's own rows, so bands can then
+        // safely place at the same time.
+        boolean counted = field.getNeighbourCounts() != null;
+        boolean plantsCounted = plantField.getNeighbourCounts() != null;
+        Bitboards bitboards = field.getBitboards();
+        Bitboards plantBitboards = plantField.getBitboards();
+        field.clear();
+        plantField.clear();
+        field.setCountNeighbours(false);
+        plantField.setCountNeighbours(false);
+        field.setBitboards(null);
+        plantField.setBitboards(null);
+        int bands = (field.getDepth() + BAND_ROWS - 1) / BAND_ROWS;
+        List<List<Animal>> bandAnimals = new ArrayList<>();
+        List<List<Plant>> bandPlants = new ArrayList<>();
+        for(int band = 0; band < bands; band++) {
+            bandAnimals.add(new ArrayList<>());
+            bandPlants.add(new ArrayList<>());
+        }
+        pool.invoke(new BandTask(0, bands, seed, field, plantField, bandAnimals, bandPlants));
+        field.setCountNeighbours(counted);
+        plantField.setCountNeighbours(plantsCounted);
+        field.setBitboards(bitboards);
+        plantField.setBitboards(plantBitboards);
+        for(int band = 0; band < bands; band++) {
+            plants.addAll(bandPlants.get(band));
+            animals.addAll(bandAnimals.get(band));
+        }
+    }
+
+    /**
+     * Fill one band.
+     */
+    private void fillBand(int band, long seed, Field field, Field plantField,
+                          List<Animal> animals, List<Plant> plants)
+    {
+        Random random = new Random(mix(seed + (band + 1) * GOLDEN_GAMMA));
+        int firstRow = band * BAND_ROWS;
+        int endRow = Math.min(field.getDepth(), firstRow + BAND_ROWS);
+        int width = field.getWidth();
+        for(int row = firstRow; row < endRow; row++) {
+            for(int col = 0; col < width; col++) {
+                if(random.nextDouble() <= plantProbability) {
+                    plants.add(new Plant(plantField, new Location(row, col), random));
+                }
+            }
+        }
+        for(int row = firstRow; row < endRow; row++) {
+            for(int col = 0; col < width; col++) {
+                for(int i = 0; i < animalTags.length; i++) {
+                    if(random.nextDouble() <= animalProbabilities[i]) {
+                        animals.add((Animal) Species.create(animalTags[i], field, plantField,
+                                                            new Location(row, col), random));
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Scramble the bits of a seed, so that neighbouring bands get
+     * unrelated generators.
+     */
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Fill a range of bands, splitting it between threads.
+     */
+    private class BandTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final long seed;
+        private final Field field, plantField;
+        private final List<List<Animal>> bandAnimals;
+        private final List<List<Plant>> bandPlants;
+
+        BandTask(int from, int to, long seed, Field field, Field plantField,
+                 List<List<Animal>> bandAnimals, List<List<Plant>> bandPlants)
+        {
+            this.from = from;
+            this.to = to;
+            this.seed = seed;
+            this.field = field;
+            this.plantField = plantField;
+            this.bandAnimals = bandAnimals;
+            this.bandPlants = bandPlants;
+        }
+
+        protected void compute()
+        {
+            if(to - from == 1) {
+                fillBand(from, seed, field, plantField, bandAnimals.get(from), bandPlants.get(from));
+            }
+            else if(to > from) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BandTask(from, middle, seed, field, plantField, bandAnimals, bandPlants),
+                          new BandTask(middle, to, seed, field, plantField, bandAnimals, bandPlants));
+            }
+        }
+    }
+}
@@ -17,14 +17,21 @@ public class Plant
     private Location location;
     // Whether or not the plant is "alive" or not - the plant "dies" if it is eaten
     private boolean alive;
-    // The growth size of a plant
+    // The growth size of a plant, unless its expiry is scheduled
     private int size;
+    // The wheel on which the plant's expiry is scheduled, or null if
+    // it grows step by step
+    private TimingWheel growthWheel;
+    // With a growth wheel, the tick at which the plant's size was zero
+    private long born;
     // The minimum age a plant must be in order to spread to adjacent tiles
-    private static final int GROWTH_AGE = 2;
+    static final int GROWTH_AGE = 2;
     // Maximum size a plant can grow to
-    private static final int MAX_GROWTH = 350;
+    static final int MAX_GROWTH = 350;
     // Probabilty that a plant spreads   
-    private static final double GROWTH_PROBABILITY = 0.91;
+    static final double GROWTH_PROBABILITY = 0.91;
+    // Plants created with a random size are smaller than this
+    static final int MAX_INITIAL_SIZE = 50;
     
     private static final Random rand = Randomizer.getRandom();
     
@@ -41,17 +48,59 @@ public class Plant
         this.field = field;
         setLocation(location);
         if(randomSize)
-            size = rand.nextInt(50);
+            size = rand.nextInt(MAX_INITIAL_SIZE);
         else
             size = 0;
     }
     
+    /**
+     * Create a new plant object with a random size, drawn from the given
+     * generator rather than the shared one.
+     * 
+     * @param field The field currently occupied
+     * @param location The location within the field
+     * @param random The generator to use
+     */
+    public Plant(Field field, Location location, Random random)
+    {
+        alive = true;
+        this.field = field;
+        setLocation(location);
+        size = random.nextInt(MAX_INITIAL_SIZE);
+    }
+    
+    /**
+     * Create a plant of a given size, as saved in a checkpoint, without
+     * placing it in the field.
+     * 
+     * @param field The field of plants
+     * @param location Its location, or null if it is dead
+     * @param size The plant's size
+     */
+    public Plant(Field field, Location location, int size)
+    {
+        alive = location != null;
+        this.field = alive ? field : null;
+        this.location = location;
+        this.size = size;
+    }
+    
     /**
      * Method for the plant to "act". Plant gets bigger every steps and tries to spread.
      */
     public void act(List<Plant> newPlants)
     {
         incrementGrowth();
+        actGrown(newPlants);
+    }
+
+    /**
+     * Act for a step in which the plant has already grown, as
+     * BulkAging does for many plants at once.
+     * @param newPlants A list to return newly spawned plants
+     */
+    void actGrown(List<Plant> newPlants)
+    {
         if(isAlive())
         {
             spread(newPlants);
@@ -65,19 +114,34 @@ public class Plant
      */
     public void spread(List<Plant> newPlants)
     {
-        if(size >= GROWTH_AGE && rand.nextDouble() <= GROWTH_PROBABILITY)
+        if(getSize() >= GROWTH_AGE && rand.nextDouble() <= GROWTH_PROBABILITY)
         {
-            Field nField = getField();
-            List<Location> free = nField.getFreeAdjacentLocations(getLocation());
-            int number = rand.nextInt(5);
-            for(int b = 0; b < number && free.size() > 0; b++) {
-                Location loc = free.remove(0);
-                Plant sapling = new Plant(false, field, loc);
-                newPlants.add(sapling);
-            } 
+            sprout(newPlants);
         }
     }
     
+    /**
+     * Spawn new plants into free adjacent tiles, without checking
+     * whether the plant is ready to spread.
+     * 
+     * @param newPlants A list to return newly spawned plants
+     */
+    void sprout(List<Plant> newPlants)
+    {
+        Field nField = getField();
+        List<Location> free = nField.getFreeAdjacentLocations(getLocation());
+        int number = rand.nextInt(5);
+        for(int b = 0; b < number && free.size() > 0; b++) {
+            Location loc = free.remove(0);
+            Plant sapling = new Plant(false, field, loc);
+            EventTracer.birth(sapling, loc);
+            if(growthWheel != null) {
+                sapling.scheduleGrowth(growthWheel);
+            }
+            newPlants.add(sapling);
+        } 
+    }
+    
     /**
      * Place the plant at a new location in the field
      * @param newLocation new location for the plant
@@ -107,6 +171,68 @@ public class Plant
         return field;
     }
     
+    /**
+     * @return How far the plant has grown, from 0 when it is new to
+     *         1 when it reaches its maximum size.
+     */
+    public double getGrowth()
+    {
+        return Math.min(1.0, (double) getSize() / MAX_GROWTH);
+    }
+    
+    /**
+     * @return The plant's size.
+     */
+    public int getSize()
+    {
+        if(growthWheel != null) {
+            return (int) (growthWheel.getTick() - born);
+        }
+        return size;
+    }
+
+    /**
+     * Keep the plant's size from now on by the clock of a timing wheel,
+     * on which its expiry is scheduled.
+     * @param wheel The wheel, whose current tick the plant has reached
+     *              its current size by.
+     */
+    void scheduleGrowth(TimingWheel wheel)
+    {
+        born = wheel.getTick() - getSize();
+        growthWheel = wheel;
+        wheel.schedule(this, born + MAX_GROWTH + 1);
+    }
+
+    /**
+     * Go back to growing step by step.
+     */
+    void unscheduleGrowth()
+    {
+        size = getSize();
+        growthWheel = null;
+    }
+
+    /**
+     * Expire, when the plant's growth wheel says it is due.
+     * @param wheel The wheel that fired.
+     */
+    void growthDue(TimingWheel wheel)
+    {
+        if(growthWheel == wheel && isAlive()) {
+            expire();
+        }
+    }
+    
+    /**
+     * Set the plant's size, without checking whether it should die.
+     * @param size The new size.
+     */
+    void setSize(int size)
+    {
+        this.size = size;
+    }
+    
     /**
      * @return If the plant is alive or not
      */
@@ -115,11 +241,33 @@ public class Plant
         return alive;
     }
     
+    /**
+     * Indicate that the plant has been eaten.
+     * It is removed from the field.
+     * @param eater The animal eating the plant.
+     */
+    protected void eat(Animal eater)
+    {
+        if(alive) {
+            EventTracer.plantEaten(this, location, eater);
+        }
+        remove();
+    }
+
+    /**
+     * Take the plant out of the field without it dying, as when it
+     * spreads into the part of the world that MeanField models.
+     */
+    void withdraw()
+    {
+        remove();
+    }
+
     /**
      * Indicate that the plant is no longer alive.
      * It is removed from the field.
      */
-    protected void eat()
+    private void remove()
     {
         alive = false;
         if(location != null) {
@@ -137,7 +285,17 @@ public class Plant
         size++;
         if(size > MAX_GROWTH)
         {
-            eat();
+            expire();
         }
     }
+
+    /**
+     * Indicate that the plant has grown past its maximum size.
+     * It is removed from the field.
+     */
+    void expire()
+    {
+        EventTracer.plantExpired(this, location);
+        remove();
+    }
 }
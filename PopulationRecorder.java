@@ -0,0 +1,104 @@
+import java.io.PrintStream;
+
+/**
+ * A simulation observer that writes the population of every species to
+ * a stream in CSV form, one line per step. It needs no display and so
+ * is suitable for batch runs.
+ */
+public class PopulationRecorder implements SimulationObserver
+{
+    // Where the lines are written.
+    private PrintStream out;
+    // The most recent counts received.
+    private int[] counts;
+    // Whether the header line has been written.
+    private boolean headerWritten;
+    // The step at which the populations last settled, and how, or null
+    // if they are not settled. Kept out of the CSV lines.
+    private int settledStep;
+    private String settledDescription;
+
+    /**
+     * Create a recorder writing to the given stream.
+     * @param out The destination of the CSV lines.
+     */
+    public PopulationRecorder(PrintStream out)
+    {
+        this.out = out;
+        headerWritten = false;
+    }
+
+    /**
+     * Nothing happens at the start of a step.
+     */
+    public void stepStarted(int step)
+    {
+    }
+
+    /**
+     * Write the counts for the step that has finished.
+     */
+    public void stepFinished(int step, Field field, Field plantField)
+    {
+        if(counts == null) {
+            return;
+        }
+        if(!headerWritten) {
+            out.print("step");
+            for(int tag = 1; tag < counts.length; tag++) {
+                out.print(',');
+                out.print(Species.getName(tag));
+            }
+            out.println();
+            headerWritten = true;
+        }
+        out.print(step);
+        for(int tag = 1; tag < counts.length; tag++) {
+            out.print(',');
+            out.print(counts[tag]);
+        }
+        out.println();
+    }
+
+    /**
+     * Remember the new counts until the step has finished.
+     */
+    public void populationChanged(int step, int[] counts)
+    {
+        this.counts = counts.clone();
+    }
+
+    /**
+     * Remember how the populations have settled.
+     */
+    public void settled(int step, String description)
+    {
+        settledStep = step;
+        settledDescription = description;
+    }
+
+    /**
+     * @return The step at which the populations last settled.
+     */
+    public int getSettledStep()
+    {
+        return settledStep;
+    }
+
+    /**
+     * @return How the populations have settled, or null if they are
+     *         not settled.
+     */
+    public String getSettledDescription()
+    {
+        return settledDescription;
+    }
+
+    /**
+     * @return The most recent counts received, or null.
+     */
+    public int[] getCounts()
+    {
+        return counts;
+    }
+}
@@ -10,7 +10,7 @@ public class Randomizer
     // The default seed for control of randomization.
     private static final int SEED = 1111;
     // A shared Random object, if required.
-    private static final Random rand = new Random(SEED);
+    private static final SeededRandom rand = new SeededRandom(SEED);
     // Determine whether a shared random generator is to be provided.
     private static final boolean useShared = true;
 
@@ -35,6 +35,24 @@ public class Randomizer
         }
     }
     
+    /**
+     * Return the state of the shared generator, so that it can be saved.
+     * @return The state of the shared generator.
+     */
+    public static long getState()
+    {
+        return rand.getState();
+    }
+
+    /**
+     * Restore the state of the shared generator.
+     * @param state A state returned by getState.
+     */
+    public static void setState(long state)
+    {
+        rand.setState(state);
+    }
+    
     /**
      * Reset the randomization.
      * This will have no effect if randomization is not through
@@ -0,0 +1,77 @@
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Run-length encoding of grids of species tags. A run is stored as the
+ * tag byte followed by the run length as a variable-length integer
+ * (seven bits per byte, low bits first), so a large empty area costs
+ * only a few bytes.
+ */
+public class RunLengthCodec
+{
+    /**
+     * Encode an array of tags.
+     * @param data The tags.
+     * @param length The number of tags to encode.
+     * @return The encoded runs.
+     */
+    public static byte[] encode(byte[] data, int length)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(16, length / 8));
+        int i = 0;
+        while(i < length) {
+            byte value = data[i];
+            int start = i;
+            while(i < length && data[i] == value) {
+                i++;
+            }
+            out.write(value);
+            writeLength(out, i - start);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode runs into an array of tags.
+     * @param encoded The runs, as produced by encode.
+     * @param offset Where the runs start in encoded.
+     * @param count The number of encoded bytes.
+     * @param data Receives the tags.
+     * @return The number of tags decoded.
+     */
+    public static int decode(byte[] encoded, int offset, int count, byte[] data)
+    {
+        int pos = offset;
+        int end = offset + count;
+        int i = 0;
+        while(pos < end) {
+            byte value = encoded[pos++];
+            int run = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = encoded[pos++];
+                run |= (b & 0x7f) << shift;
+                shift += 7;
+            } while((b & 0x80) != 0);
+            if(i + run > data.length) {
+                throw new IllegalArgumentException("Run overflows the grid at " + i);
+            }
+            Arrays.fill(data, i, i + run, value);
+            i += run;
+        }
+        return i;
+    }
+
+    /**
+     * Write a length as a variable-length integer.
+     */
+    private static void writeLength(ByteArrayOutputStream out, int length)
+    {
+        while(length >= 0x80) {
+            out.write((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        out.write(length);
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.Random;
+
+/**
+ * A random number generator whose internal state can be read and set,
+ * so that a saved simulation can carry on exactly where it left off.
+ * It uses the same algorithm as java.util.Random and so produces the
+ * same numbers from the same seed.
+ *
+ * Only the 48-bit seed is saved; the spare value kept by nextGaussian
+ * is not, so that method should not be used by the simulation.
+ *
+ * Unlike java.util.Random, a generator must not be shared between
+ * threads; the simulation uses its shared generator from one thread.
+ */
+public class SeededRandom extends Random
+{
+    private static final long serialVersionUID = 1L;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // The current state. It has no initializer because Random's
+    // constructor sets it through setSeed before this class's own
+    // initializers would run.
+    private long state;
+
+    /**
+     * Create a generator with the given seed.
+     * @param seed The initial seed.
+     */
+    public SeededRandom(long seed)
+    {
+        super(seed);
+    }
+
+    /**
+     * Reset the generator as if it had just been created with the
+     * given seed.
+     * @param seed The new seed.
+     */
+    public void setSeed(long seed)
+    {
+        super.setSeed(seed);
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    /**
+     * @return The internal state, for saving.
+     */
+    public long getState()
+    {
+        return state;
+    }
+
+    /**
+     * Restore an internal state previously returned by getState.
+     * @param saved The saved state.
+     */
+    public void setState(long saved)
+    {
+        state = saved & MASK;
+    }
+
+    /**
+     * Generate the next pseudorandom number.
+     * @param bits The number of random bits wanted.
+     * @return The random bits.
+     */
+    protected int next(int bits)
+    {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * An observer of a running simulation. Observers are told when each
+ * step starts and finishes, when the population counts change, and
+ * when the populations settle down or stop being settled.
+ * The graphical view is one observer; a batch run may use others or
+ * none at all.
+ */
+public interface SimulationObserver
+{
+    /**
+     * Called before the participants act in a step.
+     * @param step The step that is starting.
+     */
+    void stepStarted(int step);
+
+    /**
+     * Called once all participants have acted in a step, and also
+     * after the simulation has been reset (with step zero).
+     * @param step The step that has finished.
+     * @param field The field holding the animals.
+     * @param plantField The field holding the plants.
+     */
+    void stepFinished(int step, Field field, Field plantField);
+
+    /**
+     * Called when the population of any species differs from the
+     * previous step.
+     * @param step The current step.
+     * @param counts The population of each species, indexed by species
+     *               tag. The array must not be modified.
+     */
+    void populationChanged(int step, int[] counts);
+
+    /**
+     * Called when the populations settle into a steady state or a
+     * cycle, or into a different one, and when they stop being settled.
+     * @param step The current step.
+     * @param description A description of how the populations have
+     *                    settled, or null if they no longer have.
+     */
+    void settled(int step, String description);
+}
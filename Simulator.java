@@ -2,7 +2,12 @@ import java.util.Random;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.awt.Color;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
  * A simple predator-prey simulator, based on a rectangular field
@@ -30,6 +35,26 @@ public class Simulator
     private static final double EAGLE_CREATION_PROBABILITY = 0.01;
     // The probability that a plant will be created in any given grid position.
     private static final double PLANT_CREATION_PROBABILITY = 0.65;
+    // The species tried at each grid position, in order, and their
+    // creation probabilities.
+    private static final int[] CREATION_ORDER = { Species.EAGLE, Species.FOX, Species.SCORPION,
+                                                  Species.GRASSHOPPER, Species.SQUIRREL };
+    private static final double[] CREATION_PROBABILITIES = {
+        EAGLE_CREATION_PROBABILITY, FOX_CREATION_PROBABILITY, SCORPION_CREATION_PROBABILITY,
+        GRASSHOPPER_CREATION_PROBABILITY, SQUIRREL_CREATION_PROBABILITY };
+    // Fields with at least this many locations are populated in
+    // parallel. Smaller ones keep the sequential populate, and so the
+    // same starting world as before.
+    private static final int PARALLEL_POPULATE_AREA = 1 << 20;
+    // The prefix of the command-line argument naming a diet file.
+    private static final String DIET_ARGUMENT = "diet=";
+    // The prefix of the command-line argument giving a region of
+    // interest, as top,left,bottom,right.
+    private static final String REGION_ARGUMENT = "region=";
+    // The number of recent steps examined for a steady state or cycle.
+    private static final int SETTLING_WINDOW = 120;
+    // The relative variation in populations still counted as settled.
+    private static final double SETTLING_TOLERANCE = 0.05;
 
     // List of animals in the field.
     private List<Animal> animals;
@@ -41,10 +66,35 @@ public class Simulator
     private Field plantField;
     // The current step of the simulation.
     private int step;
-    // A graphical view of the simulation.
+    // A graphical view of the simulation, or null when running headless.
     private SimulatorView view;
-    // A graphical view of the plant simulation
-    private SimulatorView plantView;
+    // Detects when the populations have settled down.
+    private SteadyStateDetector detector;
+    // Whether a run ends once the populations have settled.
+    private boolean stopWhenSettled;
+    // The observers told about each step.
+    private List<SimulationObserver> observers;
+    // The population of each species after the latest step.
+    private int[] populations;
+    // Records every step so that earlier ones can be revisited, or null.
+    private Timeline timeline;
+    // The starting layout, or null to populate the field at random.
+    private WorldMap worldMap;
+    // Decides the order in which the animals act.
+    private UpdateScheduler scheduler;
+    // Ages everything in one pass at the start of each step, or null
+    // if each animal and plant ages as it acts.
+    private BulkAging bulkAging;
+    // Counts the steps in which things age, and holds the deaths from
+    // old age scheduled for them, or null if they age step by step.
+    private TimingWheel agingWheel;
+    // Runs the daytime steps as events, or null to step every entity.
+    private EventEngine eventEngine;
+    // Bitboards of both fields, whose masks animals consult, or null.
+    private Bitboards bitboards;
+    // Models the world outside the region of interest, or null if the
+    // whole world is simulated individually.
+    private MeanField meanField;
     
     /**
      * Construct a simulation field with default size.
@@ -55,12 +105,74 @@ public class Simulator
     }
     
     /**
-     * Create a simulation field with the given size.
+     * Create a simulation field with the given size, shown in a
+     * graphical view.
      * @param depth Depth of the field. Must be greater than zero.
      * @param width Width of the field. Must be greater than zero.
      */
     public Simulator(int depth, int width)
     {
+        this(depth, width, false);
+    }
+
+    /**
+     * Create a simulation field with the given size.
+     * A headless simulation creates no window, so it can run where no
+     * display is available; observers can be added to follow it.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param headless true to run without a graphical view.
+     */
+    public Simulator(int depth, int width, boolean headless)
+    {
+        this(depth, width, headless, null, null);
+    }
+
+    /**
+     * Create a simulation field with the given size in which only a
+     * region is simulated animal by animal, as setRegionOfInterest
+     * does. Only the region is populated with animals and plants; the
+     * blocks outside it start from the expected numbers of each
+     * species, so a large world is set up in time proportional to the
+     * region and the number of blocks rather than its area.
+     * @param depth Depth of the field. Must be greater than zero.
+     * @param width Width of the field. Must be greater than zero.
+     * @param headless true to run without a graphical view.
+     * @param top The first row of the region.
+     * @param left The first column of the region.
+     * @param bottom The row below the last row of the region.
+     * @param right The column after the last column of the region.
+     */
+    public Simulator(int depth, int width, boolean headless,
+                     int top, int left, int bottom, int right)
+    {
+        this(depth, width, headless, null, new int[] { top, left, bottom, right });
+    }
+
+    /**
+     * Create a simulation whose starting layout is read from a map file
+     * rather than chosen at random. Resetting returns to that layout.
+     * @param worldMap A binary cell map or indexed-color image.
+     * @param headless true to run without a graphical view.
+     * @throws IOException If the map cannot be read.
+     */
+    public Simulator(File worldMap, boolean headless) throws IOException
+    {
+        this(0, 0, headless, new WorldMap(worldMap), null);
+    }
+
+    /**
+     * Create a simulation field of the given size, or of the map's size
+     * if a map is given, simulating only the region given as top, left,
+     * bottom and right individually if there is one.
+     */
+    private Simulator(int depth, int width, boolean headless, WorldMap worldMap, int[] region)
+    {
+        if(worldMap != null) {
+            depth = worldMap.getDepth();
+            width = worldMap.getWidth();
+        }
+        this.worldMap = worldMap;
         if(width <= 0 || depth <= 0) {
             System.out.println("The dimensions must be greater than zero.");
             System.out.println("Using default values.");
@@ -70,21 +182,34 @@ public class Simulator
         
         animals = new ArrayList<>();
         field = new Field(depth, width);
+        scheduler = new UpdateScheduler(UpdateScheduler.SPAWN_ORDER,
+                                        UpdateScheduler.DEFAULT_SORT_INTERVAL);
         
         plants = new ArrayList<>();
         plantField = new Field(depth, width);
 
-        // Create a view of the state of each location in the field.
-        view = new SimulatorView(depth, width);
-        view.setColor(Squirrel.class, Color.RED);
-        view.setColor(Fox.class, Color.BLUE);
-        view.setColor(Scorpion.class, Color.PINK);
-        view.setColor(Grasshopper.class, Color.GREEN);
-        view.setColor(Eagle.class, Color.ORANGE);
-        
-        //plantView = new SimulatorView(depth, width);
-        //plantView.setColor(Plant.class, Color.GREEN);
+        detector = new SteadyStateDetector(SETTLING_WINDOW, SETTLING_TOLERANCE);
+        observers = new ArrayList<>();
+        populations = new int[Species.count()];
+
+        if(!headless) {
+            // Create a view of the state of each location in the field.
+            view = new SimulatorView(depth, width);
+            for(int tag = 1; tag < Species.count(); tag++) {
+                if(tag != Species.PLANT) {
+                    view.setColor(Species.typeOf(tag), Species.getColor(tag));
+                }
+            }
+            addObserver(view);
+            // Let the view redraw only what has changed.
+            field.setTrackChanges(true);
+            plantField.setTrackChanges(true);
+        }
         
+        if(region != null) {
+            meanField = new MeanField(depth, width, region[0], region[1], region[2], region[3]);
+        }
+
         // Setup a valid starting point.
         reset();
     }
@@ -100,12 +225,14 @@ public class Simulator
     
     /**
      * Run the simulation from its current state for the given number of steps.
-     * Stop before the given number of steps if it ceases to be viable.
+     * Stop before the given number of steps if it ceases to be viable, or
+     * if the populations have settled and stopWhenSettled is set.
      * @param numSteps The number of steps to run for.
      */
     public void simulate(int numSteps)
     {
-        for(int step = 1; step <= numSteps && view.isViable(field); step++) {
+        for(int step = 1; step <= numSteps && isViable()
+                && !(stopWhenSettled && detector.isSettled()); step++) {
             simulateOneStep();
             //delay(60);   // uncomment this to run more slowly
         }
@@ -119,6 +246,26 @@ public class Simulator
     public void simulateOneStep()
     {
         step++;
+        EventTracer.setStep(step);
+        for(SimulationObserver observer : observers) {
+            observer.stepStarted(step);
+        }
+
+        if(eventEngine != null) {
+            // Events take the place of every animal and plant acting.
+            if(!isNight()) {
+                if(bitboards != null) {
+                    bitboards.computeMasks();
+                }
+                eventEngine.simulateDay(agingWheel);
+                if(meanField != null) {
+                    stepMeanField();
+                    eventEngine.invalidate();
+                }
+            }
+            finishStep();
+            return;
+        }
         
         /*if(step % 35 == 0) {
             plants.clear();
@@ -129,13 +276,27 @@ public class Simulator
         List<Animal> newAnimals = new ArrayList<>();
         List<Plant> newPlants = new ArrayList<>();
         
+        // Age everything at once, leaving only the survivors to act.
+        if(bulkAging != null && !isNight()) {
+            bulkAging.growPlants(plants);
+            bulkAging.ageAnimals(animals);
+        }
+        else if(agingWheel != null && !isNight()) {
+            fireScheduledDeaths();
+        }
+
         //Let all plants act
         for(Iterator<Plant> it = plants.iterator(); it.hasNext(); ) {
             Plant plant = it.next();
             
             //Plants only act if it is not night
             if(!isNight()) { 
-                plant.act(newPlants);
+                if(bulkAging != null || agingWheel != null) {
+                    plant.actGrown(newPlants);
+                }
+                else {
+                    plant.act(newPlants);
+                }
                 if(!plant.isAlive()) {
                     it.remove();
                 }
@@ -143,12 +304,26 @@ public class Simulator
         }
         
         // Let all rabbits act.
+        if(!isNight()) {
+            scheduler.arrange(animals, step, field);
+            if(bitboards != null) {
+                bitboards.computeMasks();
+            }
+        }
         for(Iterator<Animal> it = animals.iterator(); it.hasNext(); ) {
             Animal animal = it.next();
             
             //Animals sleep during the night
             if(!isNight()) {
-                animal.act(newAnimals);
+                if(bulkAging != null) {
+                    animal.actAged(newAnimals);
+                }
+                else if(agingWheel != null) {
+                    animal.actScheduled(newAnimals);
+                }
+                else {
+                    animal.act(newAnimals);
+                }
                 if(! animal.isAlive()) {
                     it.remove();
                 }
@@ -158,9 +333,53 @@ public class Simulator
         // Add the newly born animals and plants to the main lists.
         animals.addAll(newAnimals);
         plants.addAll(newPlants);
+        if(meanField != null && !isNight()) {
+            stepMeanField();
+        }
+        finishStep();
+    }
+
+    /**
+     * Run a step of the world outside the region of interest, and add
+     * what arrives from it to the region.
+     */
+    private void stepMeanField()
+    {
+        List<Animal> newAnimals = new ArrayList<>();
+        List<Plant> newPlants = new ArrayList<>();
+        meanField.step(animals, plants, field, plantField, newAnimals, newPlants);
+        addArrivals(newAnimals, newPlants);
+    }
+
+    /**
+     * Add animals and plants that have come from the MeanField to the
+     * lists, scheduling their deaths if deaths are scheduled.
+     */
+    private void addArrivals(List<Animal> newAnimals, List<Plant> newPlants)
+    {
+        if(agingWheel != null) {
+            for(Animal animal : newAnimals) {
+                scheduleAging(animal);
+            }
+            for(Plant plant : newPlants) {
+                plant.scheduleGrowth(agingWheel);
+            }
+        }
+        animals.addAll(newAnimals);
+        plants.addAll(newPlants);
+    }
+
+    /**
+     * Record and report the step that has just been simulated.
+     */
+    private void finishStep()
+    {
+        recordTimeline(!isNight());
+
+        updatePopulations();
+        checkSettled();
         
-        //plantView.showStatus(step, plantField);
-        view.showStatus(step, field);
+        notifyStepFinished();
     }
     
     /**
@@ -177,25 +396,559 @@ public class Simulator
     public void reset()
     {
         step = 0;
+        EventTracer.setStep(step);
         animals.clear();
         plants.clear();
+        detector.reset();
+        if(meanField != null) {
+            meanField.clear();
+        }
         populate();
+        if(meanField != null) {
+            meanField.absorb(animals, plants);
+        }
+        if(agingWheel != null) {
+            setScheduledAging(true);
+        }
+        clearTimeline();
+        recordTimeline(false);
+        updatePopulations();
         
         // Show the starting state in the view.
-        //plantView.showStatus(step, plantField);
-        view.showStatus(step, field);
+        notifyStepFinished();
+    }
+
+    /**
+     * Save the complete state of the simulation, so that the run can
+     * be resumed later with restoreCheckpoint. With a region of
+     * interest, the region and the numbers of the blocks outside it
+     * are saved too.
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void saveCheckpoint(File file) throws IOException
+    {
+        WorldState state = WorldState.capture(step, field, plantField, animals, plants);
+        if(meanField != null) {
+            state.setCoarse(new int[] { meanField.getRegionTop(), meanField.getRegionLeft(),
+                                        meanField.getRegionBottom(), meanField.getRegionRight() },
+                            meanField.getNumbers());
+        }
+        Checkpoint.save(file, state);
+    }
+
+    /**
+     * Replace the state of the simulation with one saved by
+     * saveCheckpoint. The run then continues exactly as the saved one
+     * would have. The settling detector and any timeline start afresh.
+     * A checkpoint saved with a region of interest restores the region
+     * and the numbers of the blocks outside it.
+     * @param file The file to read.
+     * @throws IOException If the file cannot be read, or was saved from
+     *                     a field of a different size.
+     * @throws IllegalStateException If the checkpoint has a region of
+     *                               interest and a timeline is being
+     *                               recorded.
+     */
+    public void restoreCheckpoint(File file) throws IOException
+    {
+        WorldState state = Checkpoint.load(file);
+        checkSize(state);
+        if(state.getRegion() != null && timeline != null) {
+            throw new IllegalStateException("A checkpoint with a region of interest cannot"
+                                            + " be restored while a timeline is recorded");
+        }
+        clearTimeline();
+        restoreState(state);
+    }
+
+    /**
+     * Choose the order in which the animals act at each step. By
+     * default they act in the order they were created.
+     * @param order One of the UpdateScheduler orders: SPAWN_ORDER,
+     *              GROUPED or RANDOM.
+     */
+    public void setUpdateOrder(int order)
+    {
+        scheduler = new UpdateScheduler(order, UpdateScheduler.DEFAULT_SORT_INTERVAL);
+    }
+
+    /**
+     * Choose whether everything ages in one pass at the start of each
+     * step, before anything acts, or each animal and plant ages as it
+     * acts, as by default. See BulkAging.
+     * @param bulk true to age everything in one pass.
+     */
+    public void setBulkAging(boolean bulk)
+    {
+        if(bulk) {
+            setScheduledAging(false);
+        }
+        bulkAging = bulk ? new BulkAging() : null;
+    }
+
+    /**
+     * Choose whether deaths from old age are scheduled when each animal
+     * and plant is created, or checked for at every step as by default.
+     * When they are scheduled, ages and sizes are worked out from when
+     * each was born, and the deaths due at a step happen at its start,
+     * before anything acts. This turns bulk aging off, and turning
+     * scheduled aging off stops the event engine.
+     * @param scheduled true to schedule deaths from old age.
+     */
+    public void setScheduledAging(boolean scheduled)
+    {
+        if(!scheduled) {
+            eventEngine = null;
+        }
+        else if(eventEngine != null) {
+            eventEngine.invalidate();
+        }
+        if(agingWheel != null) {
+            for(Animal animal : animals) {
+                animal.unscheduleAging();
+            }
+            for(Plant plant : plants) {
+                plant.unscheduleGrowth();
+            }
+            agingWheel = null;
+        }
+        if(scheduled) {
+            bulkAging = null;
+            agingWheel = new TimingWheel();
+            for(Animal animal : animals) {
+                if(animal.isAlive()) {
+                    scheduleAging(animal);
+                }
+            }
+            for(Plant plant : plants) {
+                if(plant.isAlive()) {
+                    plant.scheduleGrowth(agingWheel);
+                }
+            }
+        }
+    }
+
+    /**
+     * Choose whether an animal breeds with any neighbour of its species
+     * and the opposite gender, found from NeighbourCounts kept by the
+     * field, or only if the first neighbour of its species it finds is
+     * of the opposite gender, as by default.
+     * @param exact true to find partners from the counts.
+     */
+    public void setExactMating(boolean exact)
+    {
+        field.setMatingCounts(exact);
+    }
+
+    /**
+     * Choose whether the fields keep counts of the prey and plants
+     * around each position, so that an animal with no food next to it
+     * does not look for any, and one with food goes straight to it.
+     * This is independent of exact mating, although the field of
+     * animals keeps one set of NeighbourCounts for both.
+     * @param counted true to keep the counts.
+     */
+    public void setFoodCounts(boolean counted)
+    {
+        field.setFoodCounts(counted);
+        plantField.setFoodCounts(counted);
+    }
+
+    /**
+     * Choose whether the fields are marked in Bitboards, from which
+     * masks of the positions next to prey, partners and free positions
+     * are worked out for the whole grid once a step, and kept
+     * conservative as the fields change. An animal whose masks show
+     * none of these next to it does not look for them, and so does not
+     * draw the random numbers that shuffling its neighbours would take.
+     * The run therefore follows a different random sequence from one
+     * without the masks: it is the same model, but not the same run
+     * for a given seed. See Bitboards.
+     * @param masked true to keep the bitboards.
+     */
+    public void setBitboards(boolean masked)
+    {
+        bitboards = masked ? new Bitboards(field.getDepth(), field.getWidth()) : null;
+        field.setBitboards(bitboards);
+        plantField.setBitboards(bitboards);
+        if(bitboards != null) {
+            bitboards.computeMasks();
+        }
+    }
+
+    /**
+     * Simulate only a region of the world animal by animal and plant by
+     * plant, and the rest as the expected numbers of each species in
+     * blocks, which is much faster on a large world. The region is
+     * widened to whole blocks. Animals and plants outside it are
+     * turned into numbers, and the reported populations include the
+     * numbers, rounded. A reset keeps the region and populates only
+     * it, drawing the numbers of the blocks outside it from the
+     * creation probabilities. Checkpoints save the numbers of the
+     * blocks as well; restoring one saved without a region keeps the
+     * region and turns what lies outside it into numbers. A timeline
+     * records only individuals, so a region cannot be set while one is
+     * being recorded. See MeanField.
+     * @param top The first row of the region.
+     * @param left The first column of the region.
+     * @param bottom The row below the last row of the region.
+     * @param right The column after the last column of the region.
+     * @throws IllegalStateException If a timeline is being recorded.
+     */
+    public void setRegionOfInterest(int top, int left, int bottom, int right)
+    {
+        if(timeline != null) {
+            throw new IllegalStateException("A region of interest cannot be set"
+                                            + " while a timeline is recorded");
+        }
+        clearRegionOfInterest();
+        meanField = new MeanField(field.getDepth(), field.getWidth(), top, left, bottom, right);
+        meanField.absorb(animals, plants);
+        if(eventEngine != null) {
+            eventEngine.invalidate();
+        }
+        updatePopulations();
+    }
+
+    /**
+     * Go back to simulating the whole world individually. The expected
+     * numbers outside the region become animals and plants at random
+     * free positions of their blocks.
+     */
+    public void clearRegionOfInterest()
+    {
+        if(meanField == null) {
+            return;
+        }
+        List<Animal> newAnimals = new ArrayList<>();
+        List<Plant> newPlants = new ArrayList<>();
+        meanField.release(field, plantField, newAnimals, newPlants);
+        addArrivals(newAnimals, newPlants);
+        meanField = null;
+        if(eventEngine != null) {
+            eventEngine.invalidate();
+        }
+        updatePopulations();
+    }
+
+    /**
+     * Choose whether the daytime steps are run as a sequence of events
+     * in continuous time, or by letting every animal and plant act as
+     * by default. The event engine keeps ages by the aging wheel of
+     * scheduled aging, which is turned on with it and left on after,
+     * but finds an animal's death from old age when it next acts rather
+     * than scheduling it. See EventEngine.
+     * @param eventDriven true to run the steps as events.
+     */
+    public void setEventDriven(boolean eventDriven)
+    {
+        if(eventDriven) {
+            eventEngine = new EventEngine(plantField, animals, plants);
+            setScheduledAging(true);
+        }
+        else if(eventEngine != null) {
+            eventEngine = null;
+            // Put the deaths the engine left to the animals on the wheel.
+            setScheduledAging(true);
+        }
+    }
+
+    /**
+     * Keep an animal's age by the aging wheel. Its death from old age
+     * is scheduled, except under the event engine, which finds it when
+     * the animal acts.
+     */
+    private void scheduleAging(Animal animal)
+    {
+        if(eventEngine != null) {
+            animal.clockAging(agingWheel);
+        }
+        else {
+            animal.scheduleAging(agingWheel);
+        }
+    }
+
+    /**
+     * Bring out the deaths from old age due at the start of a step.
+     */
+    private void fireScheduledDeaths()
+    {
+        List<Object> due = new ArrayList<>();
+        agingWheel.advance(due);
+        for(Object entity : due) {
+            if(entity instanceof Animal) {
+                ((Animal) entity).agingDue(agingWheel);
+            }
+            else {
+                ((Plant) entity).growthDue(agingWheel);
+            }
+        }
+    }
+
+    /**
+     * Record every step from now on in a timeline, so that seek can
+     * return to any of them. The current step is recorded at once if
+     * the timeline is empty. A timeline holds a single run: it is
+     * cleared when the simulation is reset. A timeline records only
+     * individuals, so none can be recorded while a region of interest
+     * is set.
+     * @param timeline The timeline, or null to stop recording.
+     * @throws IllegalStateException If a region of interest is set.
+     */
+    public void setTimeline(Timeline timeline)
+    {
+        if(timeline != null && meanField != null) {
+            throw new IllegalStateException("A timeline cannot be recorded"
+                                            + " while a region of interest is set");
+        }
+        this.timeline = timeline;
+        if(timeline != null && timeline.isEmpty()) {
+            recordTimeline(false);
+        }
+    }
+
+    /**
+     * Return to a step recorded in the timeline. Running on from there
+     * repeats the original run, and steps already in the timeline are
+     * not recorded again.
+     * @param targetStep The step to return to.
+     * @throws IOException If the step is not in the timeline or it
+     *                     cannot be read.
+     */
+    public void seek(int targetStep) throws IOException
+    {
+        if(timeline == null) {
+            throw new IllegalStateException("No timeline is being recorded");
+        }
+        WorldState state = timeline.load(targetStep);
+        checkSize(state);
+        restoreState(state);
+    }
+
+    /**
+     * Make the simulation hold a saved state and tell the observers.
+     */
+    private void restoreState(WorldState state)
+    {
+        state.apply(field, plantField, animals, plants);
+        int[] region = state.getRegion();
+        if(region != null) {
+            meanField = new MeanField(field.getDepth(), field.getWidth(),
+                                      region[0], region[1], region[2], region[3]);
+            meanField.setNumbers(state.getCoarseNumbers());
+        }
+        else if(meanField != null) {
+            meanField.clear();
+            meanField.absorb(animals, plants);
+        }
+        if(agingWheel != null) {
+            setScheduledAging(true);
+        }
+        step = state.getStep();
+        EventTracer.setStep(step);
+        detector.reset();
+        recordTimeline(false);
+        populations = new int[Species.count()];
+        updatePopulations();
+
+        // Show the restored state in the view.
+        notifyStepFinished();
+    }
+
+    /**
+     * @throws IOException If the state is for a field of another size.
+     */
+    private void checkSize(WorldState state) throws IOException
+    {
+        if(state.getDepth() != field.getDepth() || state.getWidth() != field.getWidth()) {
+            throw new IOException("Saved state is for a field of " + state.getDepth()
+                                  + " by " + state.getWidth());
+        }
+    }
+
+    /**
+     * Record the current step in the timeline, if there is one.
+     * @param acted Whether the animals and plants acted in this step.
+     */
+    private void recordTimeline(boolean acted)
+    {
+        if(timeline != null) {
+            try {
+                timeline.record(step, acted, field, plantField, animals, plants);
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Forget the steps recorded in the timeline, if there is one.
+     */
+    private void clearTimeline()
+    {
+        if(timeline != null) {
+            try {
+                timeline.clear();
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Add an observer to be told about each step.
+     * @param observer The observer to add.
+     */
+    public void addObserver(SimulationObserver observer)
+    {
+        observers.add(observer);
+    }
+
+    /**
+     * Stop telling an observer about each step.
+     * @param observer The observer to remove.
+     */
+    public void removeObserver(SimulationObserver observer)
+    {
+        observers.remove(observer);
+    }
+
+    /**
+     * Determine whether the simulation should continue to run.
+     * @return true If there is more than one species of animal alive.
+     */
+    public boolean isViable()
+    {
+        int nonZero = 0;
+        for(int tag = 0; tag < populations.length; tag++) {
+            if(tag != Species.PLANT && populations[tag] > 0) {
+                nonZero++;
+            }
+        }
+        return nonZero > 1;
+    }
+
+    /**
+     * @return The current step of the simulation.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * Recount the population of each species and tell the observers
+     * if anything has changed.
+     */
+    private void updatePopulations()
+    {
+        int[] counts = countPopulations();
+        if(!Arrays.equals(counts, populations) || step == 0) {
+            populations = counts;
+            for(SimulationObserver observer : observers) {
+                observer.populationChanged(step, populations);
+            }
+        }
+    }
+
+    /**
+     * Tell the observers that the current step has finished.
+     */
+    private void notifyStepFinished()
+    {
+        for(SimulationObserver observer : observers) {
+            observer.stepFinished(step, field, plantField);
+        }
     }
     
     /**
-     * Randomly populate field with plants
+     * Choose whether a run should end once the populations have reached
+     * a steady state or a repeating cycle. Either way, settling is
+     * reported when it is first detected.
+     * @param stop true to end runs early.
+     */
+    public void setStopWhenSettled(boolean stop)
+    {
+        stopWhenSettled = stop;
+    }
+
+    /**
+     * Replace the settling detector with one using the given settings.
+     * @param window The number of recent steps to examine.
+     * @param tolerance The relative variation allowed, e.g. 0.05 for 5%.
+     */
+    public void setSettlingDetection(int window, double tolerance)
+    {
+        detector = new SteadyStateDetector(window, tolerance);
+    }
+
+    /**
+     * @return The detector watching this simulation's populations.
+     */
+    public SteadyStateDetector getDetector()
+    {
+        return detector;
+    }
+
+    /**
+     * Count the current population of each species.
+     * @return The counts, indexed by species tag.
+     */
+    public int[] countPopulations()
+    {
+        int[] counts = new int[Species.count()];
+        for(Animal animal : animals) {
+            counts[Species.of(animal)]++;
+        }
+        counts[Species.PLANT] = plants.size();
+        if(meanField != null) {
+            for(int tag = 1; tag < counts.length; tag++) {
+                counts[tag] += (int) Math.round(meanField.getPopulation(tag));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Feed this step's populations to the detector and report when
+     * they have just settled.
      */
-    private void plantPopulate()
+    private void checkSettled()
+    {
+        int before = detector.getState();
+        int beforePeriod = detector.getPeriod();
+        detector.record(populations);
+        if(detector.isSettled() &&
+           (detector.getState() != before || detector.getPeriod() != beforePeriod)) {
+            for(SimulationObserver observer : observers) {
+                observer.settled(step, detector.getDescription());
+            }
+        }
+        else if(!detector.isSettled() && before != SteadyStateDetector.UNSETTLED) {
+            for(SimulationObserver observer : observers) {
+                observer.settled(step, null);
+            }
+        }
+    }
+
+    /**
+     * Randomly populate a part of the field with plants, clearing the
+     * rest.
+     * @param top The first row to populate.
+     * @param left The first column to populate.
+     * @param bottom The row below the last one to populate.
+     * @param right The column after the last one to populate.
+     */
+    private void plantPopulate(int top, int left, int bottom, int right)
     {
         Random rand = Randomizer.getRandom();
         
         plantField.clear();
-        for(int row = 0; row < plantField.getDepth(); row++) {
-            for(int col = 0; col < plantField.getWidth(); col++) {
+        for(int row = top; row < bottom; row++) {
+            for(int col = left; col < right; col++) {
                 if(rand.nextDouble() <= PLANT_CREATION_PROBABILITY)
                 {
                     Location location = new Location(row, col);
@@ -207,31 +960,68 @@ public class Simulator
     }
     
     /**
-     * Randomly populate the field with foxes and rabbits.
+     * Populate the field from the world map if there is one, and
+     * otherwise at random.
      */
     private void populate()
+    {
+        if(worldMap != null) {
+            worldMap.populate(field, plantField, animals, plants);
+        }
+        else {
+            randomPopulate();
+        }
+    }
+
+    /**
+     * Randomly populate the field with foxes and rabbits. A large field
+     * is populated in parallel, from a seed drawn from the shared
+     * generator. With a region of interest only the region is
+     * populated, and the blocks outside it are given the numbers the
+     * populate would create in them on average.
+     */
+    private void randomPopulate()
     {
         Random rand = Randomizer.getRandom();
-        plantPopulate();
+        int top = 0;
+        int left = 0;
+        int bottom = field.getDepth();
+        int right = field.getWidth();
+        if(meanField != null) {
+            top = meanField.getRegionTop();
+            left = meanField.getRegionLeft();
+            bottom = meanField.getRegionBottom();
+            right = meanField.getRegionRight();
+            fillMeanField();
+        }
+        else if((long) field.getDepth() * field.getWidth() >= PARALLEL_POPULATE_AREA) {
+            ParallelPopulator populator = new ParallelPopulator(PLANT_CREATION_PROBABILITY,
+                                                                CREATION_ORDER,
+                                                                CREATION_PROBABILITIES);
+            populator.populate(rand.nextLong(), field, plantField, animals, plants,
+                               ForkJoinPool.commonPool());
+            return;
+        }
+        plantPopulate(top, left, bottom, right);
         
         field.clear();
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
+        for(int row = top; row < bottom; row++) {
+            for(int col = left; col < right; col++) {
                 if(rand.nextDouble() <= EAGLE_CREATION_PROBABILITY)
                 {
                     Location location = new Location(row, col);
-                    Eagle eagle = new Eagle(true, field, location);
+                    Eagle eagle = new Eagle(true, field, plantField, location);
                     animals.add(eagle);
                 }
                 else if(rand.nextDouble() <= FOX_CREATION_PROBABILITY) {
                     Location location = new Location(row, col);
-                    Fox fox = new Fox(true, field, location);
+                    Fox fox = new Fox(true, field, plantField, location);
                     animals.add(fox);
                 }
                 else if(rand.nextDouble() <= SCORPION_CREATION_PROBABILITY)
                 {
                     Location location = new Location(row, col);
-                    Scorpion scorpion = new Scorpion(true, field, location);
+                    Scorpion scorpion = new Scorpion(true, field, plantField, location);
                     animals.add(scorpion);
                 }
                 else if(rand.nextDouble() <= GRASSHOPPER_CREATION_PROBABILITY)
@@ -250,6 +1040,22 @@ public class Simulator
         }
     }
     
+    /**
+     * Give the blocks outside the region of interest the expected
+     * numbers of each species that randomPopulate would create in them.
+     */
+    private void fillMeanField()
+    {
+        meanField.fill(Species.PLANT, PLANT_CREATION_PROBABILITY);
+        // Each species is only tried where those before it were not
+        // created.
+        double untried = 1;
+        for(int i = 0; i < CREATION_ORDER.length; i++) {
+            meanField.fill(CREATION_ORDER[i], untried * CREATION_PROBABILITIES[i]);
+            untried *= 1 - CREATION_PROBABILITIES[i];
+        }
+    }
+    
     /**
      * Pause for a given time.
      * @param millisec  The time to pause for, in milliseconds
@@ -264,8 +1070,93 @@ public class Simulator
         }
     }
 
-    public static void main(String[] args) {
-        Simulator sim = new Simulator();
+    /**
+     * Run a long simulation. With the argument "headless", or when no
+     * display is available, no window is created and the population of
+     * each step is written to standard output instead. An argument
+     * "diet=file" reads a diet file that changes what each species eats
+     * (see SpeciesTraits), the argument "events" runs the steps with
+     * the EventEngine, the argument "mates" turns on exact mating, and
+     * the argument "food" turns on food counts and "masks" turns on
+     * the bitboards. An argument "region=top,left,bottom,right"
+     * simulates only that region individually (see MeanField).
+     * Any other argument names a world map giving
+     * the starting layout.
+     */
+    public static void main(String[] args) throws IOException {
+        boolean headless = GraphicsEnvironment.isHeadless() ||
+                           Arrays.asList(args).contains("headless");
+        boolean events = Arrays.asList(args).contains("events");
+        boolean mates = Arrays.asList(args).contains("mates");
+        boolean food = Arrays.asList(args).contains("food");
+        boolean masks = Arrays.asList(args).contains("masks");
+        Simulator sim = null;
+        for(String arg : args) {
+            if(arg.startsWith(DIET_ARGUMENT)) {
+                SpeciesTraits.loadDiet(new File(arg.substring(DIET_ARGUMENT.length())));
+            }
+        }
+        for(String arg : args) {
+            if(!arg.equals("headless") && !arg.equals("events")
+                    && !arg.equals("mates") && !arg.equals("food") && !arg.equals("masks")
+                    && !arg.startsWith(DIET_ARGUMENT) && !arg.startsWith(REGION_ARGUMENT)) {
+                sim = new Simulator(new File(arg), headless);
+            }
+        }
+        int[] region = null;
+        for(String arg : args) {
+            if(arg.startsWith(REGION_ARGUMENT)) {
+                String[] bounds = arg.substring(REGION_ARGUMENT.length()).split(",");
+                if(bounds.length != 4) {
+                    throw new IllegalArgumentException("Expected " + REGION_ARGUMENT
+                                                       + "top,left,bottom,right: " + arg);
+                }
+                region = new int[bounds.length];
+                for(int i = 0; i < bounds.length; i++) {
+                    region[i] = Integer.parseInt(bounds[i].trim());
+                }
+            }
+        }
+        if(sim == null && region != null) {
+            // Populate only the region, rather than folding a whole
+            // populated world.
+            sim = new Simulator(DEFAULT_DEPTH, DEFAULT_WIDTH, headless,
+                                region[0], region[1], region[2], region[3]);
+            region = null;
+        }
+        else if(sim == null) {
+            sim = new Simulator(DEFAULT_DEPTH, DEFAULT_WIDTH, headless);
+        }
+        if(events) {
+            sim.setEventDriven(true);
+        }
+        if(mates) {
+            sim.setExactMating(true);
+        }
+        if(food) {
+            sim.setFoodCounts(true);
+        }
+        if(masks) {
+            sim.setBitboards(true);
+        }
+        if(region != null) {
+            sim.setRegionOfInterest(region[0], region[1], region[2], region[3]);
+        }
+        if(EventTracer.isEnabled()) {
+            // Drained every step; to JFR unless a file is named.
+            String traceFile = System.getProperty("simulator.traceFile");
+            sim.addObserver(new TraceRecorder(traceFile == null ? null : new File(traceFile)));
+        }
+        PopulationRecorder recorder = null;
+        if(headless) {
+            recorder = new PopulationRecorder(System.out);
+            sim.addObserver(recorder);
+        }
         sim.runLongSimulation();
+        if(recorder != null && recorder.getSettledDescription() != null) {
+            // Kept off standard output, which holds the CSV lines.
+            System.err.println("Step " + recorder.getSettledStep() + ": "
+                               + recorder.getSettledDescription());
+        }
     }
 }
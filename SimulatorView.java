@@ -1,5 +1,7 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import javax.swing.*;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -9,12 +11,30 @@ import java.util.Map;
  * The view displays a colored rectangle for each location 
  * representing its contents. It uses a default background color.
  * Colors for each type of species can be defined using the
- * setColor method.
+ * setColor method. The view is a SimulationObserver, and shows
+ * the field whenever a step finishes.
+ *
+ * The simulation thread only publishes a snapshot of the field into a
+ * triple buffer. A timer on the Swing event thread draws the newest
+ * snapshot at a steady frame rate, dropping any that were overtaken,
+ * so the simulation never waits for the display.
+ *
+ * The window shows a viewport onto the field that can be zoomed with
+ * the mouse wheel, panned by dragging and fitted to the window again by
+ * double-clicking. Only the locations inside the viewport are read; when
+ * several locations fall on one screen pixel a precomputed summary of
+ * the field at that scale is read instead, so the cost of drawing
+ * depends on the size of the window rather than of the field. Only the
+ * screen pixels that change are repainted.
+ *
+ * When given the plant field as well, the view draws plants as a layer
+ * beneath the animals, optionally shaded by size. Each layer can be
+ * hidden with the check boxes at the top of the window.
  * 
  * @author David J. Barnes and Michael Kölling
  * @version 2016.02.29
  */
-public class SimulatorView extends JFrame
+public class SimulatorView extends JFrame implements SimulationObserver
 {
     // Colors used for empty locations.
     private static final Color EMPTY_COLOR = Color.white;
@@ -24,6 +44,16 @@ public class SimulatorView extends JFrame
     // Color used for objects that have no defined color.
     private static final Color UNKNOWN_COLOR = Color.gray;
 
+    // Color used outside the edges of the field.
+    private static final Color OUTSIDE_COLOR = Color.lightGray;
+    // Selects the red, green and blue parts of an ARGB value.
+    private static final int RGB_MASK = 0xffffff;
+
+    // The number of screen rows grouped together when repainting.
+    private static final int REPAINT_BAND = 16;
+    // The number of frames drawn per second unless changed.
+    private static final int DEFAULT_FRAME_RATE = 30;
+
     private final String STEP_PREFIX = "Step: ";
     private final String POPULATION_PREFIX = "Population: ";
     private JLabel stepLabel, population, infoLabel;
@@ -31,9 +61,25 @@ public class SimulatorView extends JFrame
     
     // A map for storing colors for participants in the simulation
     private Map<Class, Color> colors;
+    // The RGB value to draw for each species tag, followed by the value
+    // for objects that are not a known species and then the plant shades.
+    private int[] palette;
+    // The palette index of the first plant shade.
+    private int plantBase;
+    // Whether every location must be drawn again in the next frame.
+    private volatile boolean redrawAll;
+    // Whether each layer is shown, and whether plants are shaded by size.
+    private volatile boolean showAnimals, showPlants, shadePlants;
     // A statistics object computing and storing simulation information
     private FieldStats stats;
 
+    // The state of the field as last seen by the simulation thread.
+    private FieldSnapshot latest;
+    // Snapshots passed from the simulation thread to the event thread.
+    private TripleBuffer<FieldSnapshot> frames;
+    // Draws the newest frame at the frame rate.
+    private Timer renderTimer;
+
     /**
      * Create a view of the given width and height.
      * @param height The simulation's height.
@@ -43,6 +89,16 @@ public class SimulatorView extends JFrame
     {
         stats = new FieldStats();
         colors = new LinkedHashMap<>();
+        plantBase = FieldSnapshot.UNKNOWN + 1;
+        palette = new int[plantBase + FieldSnapshot.PLANT_SHADES];
+        showAnimals = true;
+        showPlants = true;
+        updatePalette();
+
+        latest = new FieldSnapshot(height, width);
+        frames = new TripleBuffer<>(new FieldSnapshot(height, width),
+                                    new FieldSnapshot(height, width),
+                                    new FieldSnapshot(height, width));
 
         setTitle("Predator and prey Simulation");
         stepLabel = new JLabel(STEP_PREFIX, JLabel.CENTER);
@@ -55,14 +111,23 @@ public class SimulatorView extends JFrame
 
         Container contents = getContentPane();
         
+        JPanel layerPane = new JPanel();
+            layerPane.add(createToggle("Animals", showAnimals, on -> setShowAnimals(on)));
+            layerPane.add(createToggle("Plants", showPlants, on -> setShowPlants(on)));
+            layerPane.add(createToggle("Shade", shadePlants, on -> setShadePlants(on)));
         JPanel infoPane = new JPanel(new BorderLayout());
             infoPane.add(stepLabel, BorderLayout.WEST);
             infoPane.add(infoLabel, BorderLayout.CENTER);
+            infoPane.add(layerPane, BorderLayout.EAST);
         contents.add(infoPane, BorderLayout.NORTH);
         contents.add(fieldView, BorderLayout.CENTER);
         contents.add(population, BorderLayout.SOUTH);
         pack();
         setVisible(true);
+
+        renderTimer = new Timer(1000 / DEFAULT_FRAME_RATE, e -> renderFrame());
+        renderTimer.setCoalesce(true);
+        renderTimer.start();
     }
     
     /**
@@ -73,14 +138,121 @@ public class SimulatorView extends JFrame
     public void setColor(Class animalClass, Color color)
     {
         colors.put(animalClass, color);
+        updatePalette();
+    }
+
+    /**
+     * Show or hide the animal layer.
+     * @param show true to show animals.
+     */
+    public void setShowAnimals(boolean show)
+    {
+        showAnimals = show;
+        redrawAll = true;
+    }
+
+    /**
+     * Show or hide the plant layer. Plants are only shown when the view
+     * is given the plant field.
+     * @param show true to show plants.
+     */
+    public void setShowPlants(boolean show)
+    {
+        showPlants = show;
+        redrawAll = true;
+    }
+
+    /**
+     * Choose whether plants are shaded by their size. Shading requires
+     * every plant to be looked at in every step.
+     * @param shade true to shade plants.
+     */
+    public void setShadePlants(boolean shade)
+    {
+        shadePlants = shade;
+    }
+
+    /**
+     * Create a check box that calls the given action when changed.
+     */
+    private JCheckBox createToggle(String name, boolean selected,
+                                   java.util.function.Consumer<Boolean> action)
+    {
+        JCheckBox box = new JCheckBox(name, selected);
+        box.addActionListener(e -> action.accept(box.isSelected()));
+        return box;
+    }
+
+    /**
+     * Show part of the field. This stops the view from fitting the
+     * whole field to the window until fitToWindow is called.
+     * @param row The row to show at the top of the window.
+     * @param col The column to show at the left of the window.
+     * @param pixelsPerLocation The zoom; less than one to show several
+     *                          locations per screen pixel.
+     */
+    public void setViewport(double row, double col, double pixelsPerLocation)
+    {
+        SwingUtilities.invokeLater(() -> fieldView.setViewport(row, col, pixelsPerLocation));
+    }
+
+    /**
+     * Fit the whole field to the window, as when the view was created.
+     */
+    public void fitToWindow()
+    {
+        SwingUtilities.invokeLater(() -> fieldView.fitToWindow());
+    }
+
+    /**
+     * Set how many times per second the newest frame is drawn.
+     * @param framesPerSecond The target frame rate.
+     */
+    public void setFrameRate(int framesPerSecond)
+    {
+        renderTimer.setDelay(1000 / Math.max(1, framesPerSecond));
+    }
+
+    /**
+     * Rebuild the table of RGB values for each species tag.
+     */
+    private void updatePalette()
+    {
+        palette[Species.NONE] = EMPTY_COLOR.getRGB() & RGB_MASK;
+        for(int tag = 1; tag < FieldSnapshot.UNKNOWN; tag++) {
+            palette[tag] = getColor(Species.typeOf(tag)).getRGB() & RGB_MASK;
+        }
+        palette[FieldSnapshot.UNKNOWN] = UNKNOWN_COLOR.getRGB() & RGB_MASK;
+        // Plant shades run from pale to the full plant color.
+        Color plant = colors.get(Plant.class);
+        if(plant == null) {
+            plant = Species.getColor(Species.PLANT);
+        }
+        for(int shade = 0; shade < FieldSnapshot.PLANT_SHADES; shade++) {
+            double weight = 0.2 + 0.6 * shade / Math.max(1, FieldSnapshot.PLANT_SHADES - 1);
+            palette[plantBase + shade] = blend(EMPTY_COLOR, plant, weight).getRGB() & RGB_MASK;
+        }
+        // Every location must be drawn again in its new color.
+        redrawAll = true;
+    }
+
+    /**
+     * @return A color part way from one color to another.
+     */
+    private static Color blend(Color from, Color to, double weight)
+    {
+        return new Color((int) (from.getRed() + (to.getRed() - from.getRed()) * weight),
+                         (int) (from.getGreen() + (to.getGreen() - from.getGreen()) * weight),
+                         (int) (from.getBlue() + (to.getBlue() - from.getBlue()) * weight));
     }
 
     /**
      * Display a short information label at the top of the window.
+     * This may be called from any thread.
      */
     public void setInfoText(String text)
     {
-        infoLabel.setText(text);
+        SwingUtilities.invokeLater(() -> infoLabel.setText(text));
     }
 
     /**
@@ -99,49 +271,120 @@ public class SimulatorView extends JFrame
     }
 
     /**
-     * Show the current status of the field.
+     * Show the current status of the field. The field is copied into a
+     * snapshot which is drawn later on the event thread, so this
+     * returns without waiting for the display.
      * @param step Which iteration step it is.
      * @param field The field whose status is to be displayed.
      */
     public void showStatus(int step, Field field)
     {
+        latest.update(step, field);
+        frames.getBack().copyFrom(latest);
+        frames.publish();
+    }
+
+    /**
+     * Show the current status of the animal field over the plant field.
+     * Both fields are copied in a single scan where possible, and drawn
+     * later into the same image.
+     * @param step Which iteration step it is.
+     * @param field The field holding the animals.
+     * @param plantField The field holding the plants.
+     */
+    public void showStatus(int step, Field field, Field plantField)
+    {
+        latest.update(step, field, plantField, shadePlants);
+        frames.getBack().copyFrom(latest);
+        frames.publish();
+    }
+
+    /**
+     * Show a grid of species tags, such as a frame read back from an
+     * archive, instead of a field. Like showStatus, this returns
+     * without waiting for the display, so frames may be shown far
+     * faster than they are drawn; only the newest is drawn each time.
+     * @param step The step the grid shows.
+     * @param tags The tag of each location, in row order.
+     */
+    public void showFrame(int step, byte[] tags)
+    {
+        latest.capture(step, tags);
+        frames.getBack().copyFrom(latest);
+        frames.publish();
+    }
+
+    /**
+     * Draw the newest published frame, if there is one that has not
+     * been drawn yet. Runs on the event thread.
+     */
+    private void renderFrame()
+    {
+        boolean all = redrawAll;
+        FieldSnapshot frame = frames.takeNewest();
+        if(frame == null) {
+            if(!all) {
+                return;
+            }
+            // Nothing new, but the frame on screen must be drawn again.
+            frame = frames.getFront();
+        }
+        redrawAll = false;
         if(!isVisible()) {
             setVisible(true);
         }
-            
-        stepLabel.setText(STEP_PREFIX + step);
+        stepLabel.setText(STEP_PREFIX + frame.getStep());
+        fieldView.render(frame, showAnimals, showPlants, all);
+
         stats.reset();
-        
-        fieldView.preparePaint();
-
-        for(int row = 0; row < field.getDepth(); row++) {
-            for(int col = 0; col < field.getWidth(); col++) {
-                Object animal = field.getObjectAt(row, col);
-                if(animal != null) {
-                    stats.incrementCount(animal.getClass());
-                    fieldView.drawMark(col, row, getColor(animal.getClass()));
-                }
-                /*else if(step % 2 == 0) {
-                    fieldView.drawMark(col, row, NIGHT_COLOR);
-                }*/
-                else {
-                    fieldView.drawMark(col, row, EMPTY_COLOR);
-                }
+        for(int tag = 1; tag < FieldSnapshot.UNKNOWN; tag++) {
+            if(tag == Species.PLANT && frame.getPlants() != null && !showPlants) {
+                continue;
+            }
+            if(frame.getCount(tag) > 0) {
+                stats.incrementCount(Species.typeOf(tag), frame.getCount(tag));
             }
         }
         stats.countFinished();
+        population.setText(POPULATION_PREFIX + stats.getPopulationDetails());
+    }
+
+    /**
+     * Nothing is shown when a step starts.
+     * @param step The step that is starting.
+     */
+    public void stepStarted(int step)
+    {
+    }
+
+    /**
+     * Show the animal and plant fields when a step has finished.
+     * @param step The step that has finished.
+     * @param field The field holding the animals.
+     * @param plantField The field holding the plants.
+     */
+    public void stepFinished(int step, Field field, Field plantField)
+    {
+        showStatus(step, field, plantField);
+    }
 
-        population.setText(POPULATION_PREFIX + stats.getPopulationDetails(field));
-        fieldView.repaint();
+    /**
+     * The population is counted from the field as it is shown.
+     * @param step The current step.
+     * @param counts The population of each species.
+     */
+    public void populationChanged(int step, int[] counts)
+    {
     }
 
     /**
-     * Determine whether the simulation should continue to run.
-     * @return true If there is more than one species alive.
+     * Show how the populations have settled, if they have.
+     * @param step The current step.
+     * @param description How the populations have settled, or null.
      */
-    public boolean isViable(Field field)
+    public void settled(int step, String description)
     {
-        return stats.isViable(field);
+        setInfoText(description != null ? description : "  ");
     }
     
     /**
@@ -149,18 +392,40 @@ public class SimulatorView extends JFrame
      * a nested class (a class defined inside a class) which
      * defines a custom component for the user interface. This
      * component displays the field.
+     * The component shows a viewport onto the field. Each screen pixel
+     * is written directly into an image the size of the component, from
+     * the level of the frame's TagPyramid whose locations are closest to
+     * the size of a pixel, and the image is copied to the screen with a
+     * single drawImage.
      * This is rather advanced GUI stuff - you can ignore this 
      * for your project if you like.
      */
     private class FieldView extends JPanel
     {
         private final int GRID_VIEW_SCALING_FACTOR = 6;
+        // The largest preferred size along either side, in pixels.
+        private final int MAX_PREFERRED_SIZE = 900;
+        // The limits of the zoom, in screen pixels per location.
+        private final double MAX_ZOOM = 64;
+        // The change in zoom for one click of the mouse wheel.
+        private final double ZOOM_STEP = 1.25;
 
         private int gridWidth, gridHeight;
-        private int xScale, yScale;
-        Dimension size;
-        private Graphics g;
-        private Image fieldImage;
+        // The image holding one value per screen pixel.
+        private BufferedImage viewImage;
+        // The RGB values backing viewImage.
+        private int[] pixels;
+        // Screen pixels per location.
+        private double zoom;
+        // The location (in fractions of a location) at the top left.
+        private double originRow, originCol;
+        // Whether the whole field is fitted to the component.
+        private boolean fitted;
+        // The column and row of the summary level shown at each screen
+        // column and row, or -1 outside the field.
+        private int[] columnCells, rowCells;
+        // Where the mouse was last pressed or dragged.
+        private Point dragFrom;
 
         /**
          * Create a new FieldView component.
@@ -169,7 +434,39 @@ public class SimulatorView extends JFrame
         {
             gridHeight = height;
             gridWidth = width;
-            size = new Dimension(0, 0);
+            fitted = true;
+            zoom = 1;
+
+            addMouseWheelListener(e -> {
+                double factor = Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation());
+                zoomAround(e.getX(), e.getY(), factor);
+            });
+            MouseAdapter dragger = new MouseAdapter() {
+                public void mousePressed(MouseEvent e)
+                {
+                    dragFrom = e.getPoint();
+                    if(e.getClickCount() == 2) {
+                        fitToWindow();
+                    }
+                }
+
+                public void mouseDragged(MouseEvent e)
+                {
+                    if(dragFrom != null) {
+                        setViewport(originRow - (e.getY() - dragFrom.y) / zoom,
+                                    originCol - (e.getX() - dragFrom.x) / zoom, zoom);
+                        dragFrom = e.getPoint();
+                    }
+                }
+            };
+            addMouseListener(dragger);
+            addMouseMotionListener(dragger);
+            addComponentListener(new ComponentAdapter() {
+                public void componentResized(ComponentEvent e)
+                {
+                    redrawAll = true;
+                }
+            });
         }
 
         /**
@@ -177,56 +474,162 @@ public class SimulatorView extends JFrame
          */
         public Dimension getPreferredSize()
         {
-            return new Dimension(gridWidth * GRID_VIEW_SCALING_FACTOR,
-                                 gridHeight * GRID_VIEW_SCALING_FACTOR);
+            double scale = Math.min(GRID_VIEW_SCALING_FACTOR,
+                                    (double) MAX_PREFERRED_SIZE / Math.max(gridWidth, gridHeight));
+            return new Dimension(Math.max(1, (int) (gridWidth * scale)),
+                                 Math.max(1, (int) (gridHeight * scale)));
         }
 
         /**
-         * Prepare for a new round of painting. Since the component
-         * may be resized, compute the scaling factor again.
+         * Show part of the field, from the given top left location and
+         * at the given zoom.
          */
-        public void preparePaint()
+        public void setViewport(double row, double col, double pixelsPerLocation)
         {
-            if(! size.equals(getSize())) {  // if the size has changed...
-                size = getSize();
-                fieldImage = fieldView.createImage(size.width, size.height);
-                g = fieldImage.getGraphics();
-
-                xScale = size.width / gridWidth;
-                if(xScale < 1) {
-                    xScale = GRID_VIEW_SCALING_FACTOR;
+            zoom = Math.max(minimumZoom(), Math.min(MAX_ZOOM, pixelsPerLocation));
+            originRow = row;
+            originCol = col;
+            fitted = false;
+            redrawAll = true;
+        }
+
+        /**
+         * Fit the whole field to the component.
+         */
+        public void fitToWindow()
+        {
+            fitted = true;
+            redrawAll = true;
+        }
+
+        /**
+         * Change the zoom, keeping the location under the given point
+         * where it is.
+         */
+        private void zoomAround(int x, int y, double factor)
+        {
+            double row = originRow + y / zoom;
+            double col = originCol + x / zoom;
+            double newZoom = Math.max(minimumZoom(), Math.min(MAX_ZOOM, zoom * factor));
+            setViewport(row - y / newZoom, col - x / newZoom, newZoom);
+        }
+
+        /**
+         * @return The zoom at which the whole field just fits; the view
+         *         cannot be zoomed out further.
+         */
+        private double minimumZoom()
+        {
+            Dimension size = getSize();
+            double fit = Math.min((double) Math.max(1, size.width) / gridWidth,
+                                  (double) Math.max(1, size.height) / gridHeight);
+            return fit;
+        }
+
+        /**
+         * Draw the part of a frame inside the viewport, and repaint the
+         * bounding rectangle of the changed pixels within each band of
+         * screen rows.
+         * @param frame The frame to draw.
+         * @param animals Whether to show the animal layer.
+         * @param plants Whether to show the plant layer.
+         * @param all Whether every pixel must be repainted.
+         */
+        public void render(FieldSnapshot frame, boolean animals, boolean plants, boolean all)
+        {
+            Dimension size = getSize();
+            if(size.width <= 0 || size.height <= 0) {
+                return;
+            }
+            if(viewImage == null || viewImage.getWidth() != size.width
+                                 || viewImage.getHeight() != size.height) {
+                viewImage = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+                pixels = ((DataBufferInt) viewImage.getRaster().getDataBuffer()).getData();
+                columnCells = new int[size.width];
+                rowCells = new int[size.height];
+                all = true;
+            }
+            if(fitted) {
+                zoom = Math.min((double) size.width / gridWidth, (double) size.height / gridHeight);
+                originRow = 0;
+                originCol = 0;
+            }
+
+            // Use the coarsest level whose locations are no bigger than a pixel.
+            TagPyramid tagLevels = frame.getTagPyramid();
+            int level = 0;
+            while(level + 1 < tagLevels.getLevelCount() && (1 << (level + 1)) * zoom <= 1) {
+                level++;
+            }
+            byte[] tags = animals ? tagLevels.getLevel(level) : null;
+            TagPyramid plantLevels = plants ? frame.getPlantPyramid() : null;
+            byte[] plantTags = plantLevels != null ? plantLevels.getLevel(level) : null;
+            int levelWidth = tagLevels.getWidth(level);
+            mapToCells(columnCells, originCol, gridWidth, level);
+            mapToCells(rowCells, originRow, gridHeight, level);
+
+            int outside = OUTSIDE_COLOR.getRGB() & RGB_MASK;
+            for(int top = 0; top < size.height; top += REPAINT_BAND) {
+                int bottom = Math.min(size.height, top + REPAINT_BAND);
+                int left = Integer.MAX_VALUE;
+                int right = -1;
+                for(int y = top; y < bottom; y++) {
+                    int row = rowCells[y];
+                    int offset = y * size.width;
+                    for(int x = 0; x < size.width; x++) {
+                        int col = columnCells[x];
+                        int rgb;
+                        if(row < 0 || col < 0) {
+                            rgb = outside;
+                        }
+                        else {
+                            int cell = row * levelWidth + col;
+                            int index = Species.NONE;
+                            if(tags != null && tags[cell] != Species.NONE) {
+                                index = tags[cell];
+                            }
+                            else if(plantTags != null && plantTags[cell] != 0) {
+                                index = plantBase + plantTags[cell] - 1;
+                            }
+                            rgb = palette[index];
+                        }
+                        if(all || pixels[offset + x] != rgb) {
+                            pixels[offset + x] = rgb;
+                            left = Math.min(left, x);
+                            right = Math.max(right, x);
+                        }
+                    }
                 }
-                yScale = size.height / gridHeight;
-                if(yScale < 1) {
-                    yScale = GRID_VIEW_SCALING_FACTOR;
+                if(right >= 0) {
+                    repaint(left, top, right - left + 1, bottom - top);
                 }
             }
         }
-        
+
         /**
-         * Paint on grid location on this field in a given color.
+         * Work out which location of a summary level is shown at each
+         * screen column (or row).
+         * @param cells Receives the location for each pixel, or -1.
+         * @param origin The location at the first pixel.
+         * @param limit The number of locations in the field.
+         * @param level The summary level.
          */
-        public void drawMark(int x, int y, Color color)
+        private void mapToCells(int[] cells, double origin, int limit, int level)
         {
-            g.setColor(color);
-            g.fillRect(x * xScale, y * yScale, xScale-1, yScale-1);
+            for(int i = 0; i < cells.length; i++) {
+                int location = (int) Math.floor(origin + (i + 0.5) / zoom);
+                cells[i] = location < 0 || location >= limit ? -1 : location >> level;
+            }
         }
 
         /**
          * The field view component needs to be redisplayed. Copy the
-         * internal image to screen.
+         * viewport image to the screen.
          */
         public void paintComponent(Graphics g)
         {
-            if(fieldImage != null) {
-                Dimension currentSize = getSize();
-                if(size.equals(currentSize)) {
-                    g.drawImage(fieldImage, 0, 0, null);
-                }
-                else {
-                    // Rescale the previous image.
-                    g.drawImage(fieldImage, 0, 0, currentSize.width, currentSize.height, null);
-                }
+            if(viewImage != null) {
+                g.drawImage(viewImage, 0, 0, null);
             }
         }
     }
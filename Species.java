@@ -0,0 +1,230 @@
+import java.awt.Color;
+import java.util.Random;
+
+/**
+ * Provide small integer tags for the kinds of participant in the
+ * simulation. A tag is a cheaper way to identify a species than its
+ * Class object wherever many of them have to be stored or compared,
+ * e.g. in trace records.
+ */
+public class Species
+{
+    // Tag used for an empty location or an unknown kind of object.
+    public static final int NONE = 0;
+    public static final int EAGLE = 1;
+    public static final int FOX = 2;
+    public static final int SCORPION = 3;
+    public static final int GRASSHOPPER = 4;
+    public static final int SQUIRREL = 5;
+    public static final int PLANT = 6;
+
+    // Display names, indexed by tag.
+    private static final String[] NAMES = {
+        "None", "Eagle", "Fox", "Scorpion", "Grasshopper", "Squirrel", "Plant"
+    };
+    // The usual display colors, indexed by tag.
+    private static final Color[] COLORS = {
+        Color.WHITE, Color.ORANGE, Color.BLUE, Color.PINK, Color.GREEN,
+        Color.RED, Color.GREEN
+    };
+    // Classes, indexed by tag.
+    private static final Class<?>[] TYPES = {
+        null, Eagle.class, Fox.class, Scorpion.class, Grasshopper.class,
+        Squirrel.class, Plant.class
+    };
+
+    /**
+     * Return the tag for the given participant.
+     * @param entity An animal, a plant, or null.
+     * @return The species tag, or NONE if the object is not recognised.
+     */
+    public static int of(Object entity)
+    {
+        if(entity instanceof Animal) {
+            return ((Animal) entity).getSpecies();
+        }
+        else if(entity instanceof Plant) {
+            return PLANT;
+        }
+        else {
+            return NONE;
+        }
+    }
+
+    /**
+     * Return the tag for the given class of participant.
+     * @param type The class of an animal or plant.
+     * @return The species tag, or NONE if the class is not recognised.
+     */
+    public static int forType(Class<?> type)
+    {
+        for(int tag = 1; tag < TYPES.length; tag++) {
+            if(TYPES[tag] == type) {
+                return tag;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Return the tag for the given display name, ignoring case.
+     * @param name The name of a species.
+     * @return The species tag, or NONE if the name is not recognised.
+     */
+    public static int forName(String name)
+    {
+        for(int tag = 1; tag < NAMES.length; tag++) {
+            if(NAMES[tag].equalsIgnoreCase(name)) {
+                return tag;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param tag A species tag.
+     * @return The class of the species, or null for NONE.
+     */
+    public static Class<?> typeOf(int tag)
+    {
+        if(tag < 0 || tag >= TYPES.length) {
+            return null;
+        }
+        return TYPES[tag];
+    }
+
+    /**
+     * Create an animal or plant of the given species. A species of
+     * animal with no class of its own is created as a plain Animal.
+     * @param tag The species tag.
+     * @param randomAge If true, it is given a random age (and, for an
+     *                  animal, food level); otherwise it is newborn.
+     * @param field The field of animals.
+     * @param plantField The field of plants.
+     * @param location Where to place it.
+     * @return The new animal or plant, or null if the tag is not a species.
+     */
+    public static Object create(int tag, boolean randomAge, Field field, Field plantField,
+                                Location location)
+    {
+        switch(tag) {
+            case EAGLE:
+                return new Eagle(randomAge, field, plantField, location);
+            case FOX:
+                return new Fox(randomAge, field, plantField, location);
+            case SCORPION:
+                return new Scorpion(randomAge, field, plantField, location);
+            case GRASSHOPPER:
+                return new Grasshopper(randomAge, field, plantField, location);
+            case SQUIRREL:
+                return new Squirrel(randomAge, field, plantField, location);
+            case PLANT:
+                return new Plant(randomAge, plantField, location);
+            default:
+                if(SpeciesTraits.of(tag) == null) {
+                    return null;
+                }
+                return new Animal(tag, randomAge, field, plantField, location);
+        }
+    }
+
+    /**
+     * Create an animal or plant of the given species with a random age,
+     * drawing on the given generator rather than the shared one.
+     * @param tag The species tag.
+     * @param field The field of animals.
+     * @param plantField The field of plants.
+     * @param location Where to place it.
+     * @param random The generator to use.
+     * @return The new animal or plant, or null if the tag is not a species.
+     */
+    public static Object create(int tag, Field field, Field plantField, Location location,
+                                Random random)
+    {
+        switch(tag) {
+            case EAGLE:
+                return new Eagle(field, plantField, location, random);
+            case FOX:
+                return new Fox(field, plantField, location, random);
+            case SCORPION:
+                return new Scorpion(field, plantField, location, random);
+            case GRASSHOPPER:
+                return new Grasshopper(field, plantField, location, random);
+            case SQUIRREL:
+                return new Squirrel(field, plantField, location, random);
+            case PLANT:
+                return new Plant(plantField, location, random);
+            default:
+                if(SpeciesTraits.of(tag) == null) {
+                    return null;
+                }
+                return new Animal(tag, field, plantField, location, random);
+        }
+    }
+
+    /**
+     * Create an animal of the given species with a given state, as
+     * saved in a checkpoint, without placing it in the field.
+     * @param tag The species tag.
+     * @param field The field of animals.
+     * @param plantField The field of plants.
+     * @param location Its location, or null if it is dead.
+     * @param male The animal's gender.
+     * @param age The animal's age.
+     * @param foodLevel The animal's food level.
+     * @return The animal, or null if the tag is not a species of animal.
+     */
+    public static Animal restore(int tag, Field field, Field plantField, Location location,
+                                 boolean male, int age, int foodLevel)
+    {
+        switch(tag) {
+            case EAGLE:
+                return new Eagle(field, plantField, location, male, age, foodLevel);
+            case FOX:
+                return new Fox(field, plantField, location, male, age, foodLevel);
+            case SCORPION:
+                return new Scorpion(field, plantField, location, male, age, foodLevel);
+            case GRASSHOPPER:
+                return new Grasshopper(field, plantField, location, male, age, foodLevel);
+            case SQUIRREL:
+                return new Squirrel(field, plantField, location, male, age, foodLevel);
+            default:
+                if(SpeciesTraits.of(tag) == null) {
+                    return null;
+                }
+                return new Animal(tag, field, plantField, location, male, age, foodLevel);
+        }
+    }
+
+    /**
+     * @param tag A species tag.
+     * @return The display name of the species.
+     */
+    public static String getName(int tag)
+    {
+        if(tag < 0 || tag >= NAMES.length) {
+            return NAMES[NONE];
+        }
+        return NAMES[tag];
+    }
+
+    /**
+     * @param tag A species tag.
+     * @return The color normally used to display the species.
+     */
+    public static Color getColor(int tag)
+    {
+        if(tag < 0 || tag >= COLORS.length) {
+            return Color.GRAY;
+        }
+        return COLORS[tag];
+    }
+
+    /**
+     * @return The number of tags in use, including NONE.
+     */
+    public static int count()
+    {
+        return NAMES.length;
+    }
+}
@@ -0,0 +1,256 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * The characteristics of a species of animal. Every animal behaves in
+ * the same way, as set out in Animal, and differs from the others only
+ * in the traits of its species: when it can breed and how often, how
+ * long it lives, and what it eats.
+ *
+ * The traits of each species are held in one table, indexed by species
+ * tag. A species' diet is a bitmask of the species it eats, with the
+ * food value of each; one that eats plants forages in the field of
+ * plants, and one that eats animals hunts in the field of animals, so
+ * deciding whether a neighbour is food takes one lookup. A new species
+ * needs only a new row in the table (and a tag, name and color in
+ * Species), not a new class.
+ *
+ * The food web can be changed without changing the code, either with
+ * setFoodValue or by reading a diet file. Each line of a diet file
+ * names a predator, its prey and the food value of the prey, such as
+ * "Fox Squirrel 14"; a food value of zero removes the prey from the
+ * diet. Any species may be given plants or animals to eat, since every
+ * animal is given both fields. Blank lines and text after a '#' are
+ * ignored. The diet should be changed before the simulation is run.
+ */
+public class SpeciesTraits
+{
+    // The traits of each species of animal, indexed by tag, or null
+    // for a tag that is not an animal.
+    private static final SpeciesTraits[] TRAITS = new SpeciesTraits[Species.count()];
+
+    static {
+        //     species            breeding age  max age  breeding probability  max litter  diet (prey, food value)...
+        define(Species.EAGLE,       6,           43,      0.24,                 2,          Species.SQUIRREL, 31);
+        define(Species.FOX,         12,          47,      0.22,                 3,          Species.SQUIRREL, 14,
+                                                                                            Species.SCORPION, 10);
+        define(Species.SCORPION,    4,           41,      0.35,                 3,          Species.GRASSHOPPER, 12);
+        define(Species.GRASSHOPPER, 3,           45,      0.61,                 3,          Species.PLANT, 11);
+        define(Species.SQUIRREL,    3,           35,      0.51,                 3,          Species.PLANT, 8);
+    }
+
+    // The species' tag.
+    private final int tag;
+    // The age at which it can start to breed.
+    private final int breedingAge;
+    // The age to which it can live.
+    private final int maxAge;
+    // The likelihood of it breeding.
+    private final double breedingProbability;
+    // The maximum number of births.
+    private final int maxLitterSize;
+    // The food value of each species, indexed by tag; zero if it is
+    // not eaten. In effect, the number of steps before eating again.
+    private final int[] foodValues;
+    // The species eaten, with bit (1 << tag) set for each.
+    private int dietMask;
+    // The food level of a newborn: the largest food value in the diet,
+    // and at least one.
+    private int fullFoodLevel;
+
+    /**
+     * Describe a species.
+     * @param diet Pairs of a species eaten and its food value.
+     */
+    private SpeciesTraits(int tag, int breedingAge, int maxAge, double breedingProbability,
+                          int maxLitterSize, int[] diet)
+    {
+        this.tag = tag;
+        this.breedingAge = breedingAge;
+        this.maxAge = maxAge;
+        this.breedingProbability = breedingProbability;
+        this.maxLitterSize = maxLitterSize;
+        foodValues = new int[Species.count()];
+        for(int i = 0; i + 1 < diet.length; i += 2) {
+            setFoodValue(diet[i], diet[i + 1]);
+        }
+    }
+
+    /**
+     * Add a species to the table.
+     */
+    private static void define(int tag, int breedingAge, int maxAge, double breedingProbability,
+                               int maxLitterSize, int... diet)
+    {
+        TRAITS[tag] = new SpeciesTraits(tag, breedingAge, maxAge, breedingProbability,
+                                        maxLitterSize, diet);
+    }
+
+    /**
+     * @param tag A species tag.
+     * @return The traits of the species, or null if it is not an animal.
+     */
+    public static SpeciesTraits of(int tag)
+    {
+        if(tag < 0 || tag >= TRAITS.length) {
+            return null;
+        }
+        return TRAITS[tag];
+    }
+
+    /**
+     * @return The species' tag.
+     */
+    public int getTag()
+    {
+        return tag;
+    }
+
+    /**
+     * @return The age at which the species can start to breed.
+     */
+    public int getBreedingAge()
+    {
+        return breedingAge;
+    }
+
+    /**
+     * @return The age to which the species can live.
+     */
+    public int getMaxAge()
+    {
+        return maxAge;
+    }
+
+    /**
+     * @return The likelihood of the species breeding at each step.
+     */
+    public double getBreedingProbability()
+    {
+        return breedingProbability;
+    }
+
+    /**
+     * @return The maximum number of births.
+     */
+    public int getMaxLitterSize()
+    {
+        return maxLitterSize;
+    }
+
+    /**
+     * Read a diet file, changing the food web as it says.
+     * @param file The diet file.
+     * @throws IOException If the file cannot be read or a line of it
+     *                     is not a predator, a prey and a food value.
+     */
+    public static void loadDiet(File file) throws IOException
+    {
+        try(BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            for(int number = 1; (line = in.readLine()) != null; number++) {
+                int comment = line.indexOf('#');
+                if(comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                String[] words = line.trim().split("\\s+");
+                if(words.length == 1 && words[0].isEmpty()) {
+                    continue;
+                }
+                SpeciesTraits predator = words.length == 3 ? of(Species.forName(words[0])) : null;
+                int prey = words.length == 3 ? Species.forName(words[1]) : Species.NONE;
+                int foodValue;
+                try {
+                    foodValue = words.length == 3 ? Integer.parseInt(words[2]) : -1;
+                }
+                catch(NumberFormatException e) {
+                    foodValue = -1;
+                }
+                if(predator == null || prey == Species.NONE || foodValue < 0) {
+                    throw new IOException(file + " line " + number
+                                          + ": expected a predator, a prey and a food value");
+                }
+                predator.setFoodValue(prey, foodValue);
+            }
+        }
+    }
+
+    /**
+     * Add a species to the diet, change its food value, or remove it.
+     * @param prey The species tag of the prey.
+     * @param foodValue The food value of eating it, or zero to remove
+     *                  it from the diet.
+     */
+    public void setFoodValue(int prey, int foodValue)
+    {
+        if(prey <= Species.NONE || prey >= foodValues.length || foodValue < 0) {
+            throw new IllegalArgumentException("Cannot eat species " + prey
+                                               + " for food value " + foodValue);
+        }
+        foodValues[prey] = foodValue;
+        dietMask = 0;
+        fullFoodLevel = 1;
+        for(int tag = 0; tag < foodValues.length; tag++) {
+            if(foodValues[tag] > 0) {
+                dietMask |= 1 << tag;
+                fullFoodLevel = Math.max(fullFoodLevel, foodValues[tag]);
+            }
+        }
+    }
+
+    /**
+     * @param prey A species tag.
+     * @return Whether this species eats that one.
+     */
+    public boolean eats(int prey)
+    {
+        return (dietMask >>> prey & 1) != 0;
+    }
+
+    /**
+     * @return The species eaten, with bit (1 << tag) set for each.
+     */
+    public int getDietMask()
+    {
+        return dietMask;
+    }
+
+    /**
+     * @param prey A species tag.
+     * @return The food value of eating that species, or zero if this
+     *         species does not eat it.
+     */
+    public int getFoodValue(int prey)
+    {
+        if(prey < 0 || prey >= foodValues.length) {
+            return 0;
+        }
+        return foodValues[prey];
+    }
+
+    /**
+     * @return The food level of a newborn.
+     */
+    public int getFullFoodLevel()
+    {
+        return fullFoodLevel;
+    }
+
+    /**
+     * @return Whether the species eats animals.
+     */
+    public boolean eatsAnimals()
+    {
+        return (dietMask & ~(1 << Species.PLANT)) != 0;
+    }
+
+    /**
+     * @return Whether the species eats plants.
+     */
+    public boolean eatsPlants()
+    {
+        return eats(Species.PLANT);
+    }
+}
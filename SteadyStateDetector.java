@@ -0,0 +1,228 @@
+/**
+ * Watch the population counts of a running simulation and detect when
+ * they have settled down, either to a steady state or to a repeating
+ * cycle. The detector keeps a rolling window of recent counts for each
+ * species and examines it every few steps, so the cost per step is
+ * small.
+ *
+ * A steady state is reported when every species' counts in the window
+ * vary by no more than the tolerance, relative to their mean. A cycle
+ * is reported when shifting the window by some period reproduces it to
+ * within the tolerance, relative to each species' range of values, and
+ * a single period covers most of that range.
+ */
+public class SteadyStateDetector
+{
+    // Possible results of detection.
+    public static final int UNSETTLED = 0;
+    public static final int STEADY = 1;
+    public static final int CYCLE = 2;
+
+    // The shortest period considered to be a cycle.
+    private static final int MIN_PERIOD = 2;
+    // The part of a species' range that one period must cover. This
+    // stops a slow drift from looking like a very short cycle.
+    private static final double PERIOD_COVERAGE = 0.75;
+
+    // The number of steps kept for each species.
+    private final int window;
+    // The relative error allowed when comparing counts.
+    private final double tolerance;
+    // How many steps pass between examinations of the window.
+    private final int checkInterval;
+    // Recent counts, one ring of length window per species.
+    private int[][] history;
+    // The number of steps recorded since the last reset.
+    private int recorded;
+    // The result of the most recent examination.
+    private int state;
+    // The period of the detected cycle, or zero.
+    private int period;
+    // The number of steps recorded when the state was first detected.
+    private int detectedAt;
+
+    /**
+     * Create a detector.
+     * @param window The number of recent steps to examine.
+     * @param tolerance The relative error allowed, e.g. 0.05 for 5%.
+     */
+    public SteadyStateDetector(int window, double tolerance)
+    {
+        if(window < 2 * MIN_PERIOD) {
+            window = 2 * MIN_PERIOD;
+        }
+        this.window = window;
+        this.tolerance = tolerance;
+        this.checkInterval = Math.max(1, window / 8);
+        reset();
+    }
+
+    /**
+     * Forget all recorded counts.
+     */
+    public void reset()
+    {
+        history = null;
+        recorded = 0;
+        state = UNSETTLED;
+        period = 0;
+        detectedAt = 0;
+    }
+
+    /**
+     * Record the population counts of one step.
+     * @param counts The count for each species, indexed by species tag.
+     * @return The current state: UNSETTLED, STEADY or CYCLE.
+     */
+    public int record(int[] counts)
+    {
+        if(history == null) {
+            history = new int[counts.length][window];
+        }
+        int slot = recorded % window;
+        for(int s = 0; s < history.length; s++) {
+            history[s][slot] = counts[s];
+        }
+        recorded++;
+        if(recorded >= window && recorded % checkInterval == 0) {
+            examine();
+        }
+        return state;
+    }
+
+    /**
+     * @return The current state: UNSETTLED, STEADY or CYCLE.
+     */
+    public int getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return true if the populations have settled in either way.
+     */
+    public boolean isSettled()
+    {
+        return state != UNSETTLED;
+    }
+
+    /**
+     * @return The period of the detected cycle in steps, or zero.
+     */
+    public int getPeriod()
+    {
+        return period;
+    }
+
+    /**
+     * @return The number of steps recorded when settling was first
+     *         detected, or zero if it has not been.
+     */
+    public int getDetectedAt()
+    {
+        return detectedAt;
+    }
+
+    /**
+     * @return A short description of the current state.
+     */
+    public String getDescription()
+    {
+        if(state == STEADY) {
+            return "Steady state";
+        }
+        else if(state == CYCLE) {
+            return "Cycle with period " + period;
+        }
+        else {
+            return "Unsettled";
+        }
+    }
+
+    /**
+     * Examine the window for a steady state and then for a cycle.
+     */
+    private void examine()
+    {
+        int newState = UNSETTLED;
+        int newPeriod = 0;
+        if(isSteady()) {
+            newState = STEADY;
+        }
+        else {
+            for(int p = MIN_PERIOD; p <= window / 2 && newPeriod == 0; p++) {
+                if(repeatsWithPeriod(p)) {
+                    newState = CYCLE;
+                    newPeriod = p;
+                }
+            }
+        }
+        if(newState != UNSETTLED && (newState != state || newPeriod != period)) {
+            detectedAt = recorded;
+        }
+        state = newState;
+        period = newPeriod;
+    }
+
+    /**
+     * @return true if no species varies by more than the tolerance
+     *         around its mean.
+     */
+    private boolean isSteady()
+    {
+        for(int[] counts : history) {
+            double sum = 0;
+            double sumSquares = 0;
+            for(int count : counts) {
+                sum += count;
+                sumSquares += (double) count * count;
+            }
+            double mean = sum / window;
+            double variance = Math.max(0, sumSquares / window - mean * mean);
+            if(Math.sqrt(variance) > tolerance * mean) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param p The period to try.
+     * @return true if every species' counts repeat after p steps to
+     *         within the tolerance of their range, and the most recent
+     *         p steps cover most of the range.
+     */
+    private boolean repeatsWithPeriod(int p)
+    {
+        int oldest = recorded - window;
+        for(int[] counts : history) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for(int count : counts) {
+                min = Math.min(min, count);
+                max = Math.max(max, count);
+            }
+            if(max == min) {
+                continue;
+            }
+            int periodMin = Integer.MAX_VALUE;
+            int periodMax = Integer.MIN_VALUE;
+            for(int t = recorded - p; t < recorded; t++) {
+                periodMin = Math.min(periodMin, counts[t % window]);
+                periodMax = Math.max(periodMax, counts[t % window]);
+            }
+            if(periodMax - periodMin < PERIOD_COVERAGE * (max - min)) {
+                return false;
+            }
+            double error = 0;
+            for(int t = oldest + p; t < recorded; t++) {
+                error += Math.abs(counts[t % window] - counts[(t - p) % window]);
+            }
+            error /= (window - p);
+            if(error > tolerance * (max - min)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * A sum tree: a list of non-negative weights that can each be changed,
+ * and an item picked with probability proportional to its weight, each
+ * in time proportional to the logarithm of the number of weights.
+ *
+ * The weights are the leaves of a complete binary tree kept in one
+ * array, in which every other node holds the sum of its two children;
+ * the root holds the total. The tree grows as weights are added beyond
+ * its capacity.
+ */
+public class SumTree
+{
+    // The number of leaves; always a power of two.
+    private int capacity;
+    // The nodes of the tree: the root at 1, the children of node i at
+    // 2i and 2i + 1, and the leaves from capacity onwards.
+    private double[] nodes;
+
+    /**
+     * Create a tree with every weight zero.
+     * @param capacity The number of weights to make room for at first.
+     */
+    public SumTree(int capacity)
+    {
+        this.capacity = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        nodes = new double[2 * this.capacity];
+    }
+
+    /**
+     * @return The number of weights there is room for.
+     */
+    public int capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return The sum of all the weights.
+     */
+    public double total()
+    {
+        return nodes[1];
+    }
+
+    /**
+     * @param index Which weight.
+     * @return The weight.
+     */
+    public double get(int index)
+    {
+        return index < capacity ? nodes[capacity + index] : 0;
+    }
+
+    /**
+     * Change a weight, making room for it if necessary.
+     * @param index Which weight.
+     * @param weight The new weight, which must not be negative.
+     */
+    public void set(int index, double weight)
+    {
+        if(index >= capacity) {
+            grow(index + 1);
+        }
+        int node = capacity + index;
+        nodes[node] = weight;
+        // Recompute each sum from its children, so rounding errors do
+        // not build up.
+        for(node >>>= 1; node > 0; node >>>= 1) {
+            nodes[node] = nodes[2 * node] + nodes[2 * node + 1];
+        }
+    }
+
+    /**
+     * Find the weight in which a point falls, when the weights are laid
+     * end to end from zero.
+     * @param point A value from zero up to the total.
+     * @return The index of the weight.
+     */
+    public int find(double point)
+    {
+        int node = 1;
+        while(node < capacity) {
+            int left = 2 * node;
+            if(point < nodes[left]) {
+                node = left;
+            }
+            else {
+                point -= nodes[left];
+                node = left + 1;
+            }
+        }
+        return node - capacity;
+    }
+
+    /**
+     * Set every weight to zero.
+     */
+    public void clear()
+    {
+        Arrays.fill(nodes, 0);
+    }
+
+    /**
+     * Make room for at least the given number of weights.
+     */
+    private void grow(int needed)
+    {
+        int newCapacity = capacity;
+        while(newCapacity < needed) {
+            newCapacity <<= 1;
+        }
+        double[] newNodes = new double[2 * newCapacity];
+        System.arraycopy(nodes, capacity, newNodes, newCapacity, capacity);
+        for(int node = newCapacity - 1; node > 0; node--) {
+            newNodes[node] = newNodes[2 * node] + newNodes[2 * node + 1];
+        }
+        capacity = newCapacity;
+        nodes = newNodes;
+    }
+}
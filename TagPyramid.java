@@ -0,0 +1,166 @@
+/**
+ * A multi-level summary of a grid of tags, used to draw a very large
+ * field when it is zoomed out. Level 0 is the grid itself; each cell of
+ * level k summarises a 2x2 block of level k-1 by its dominant tag: the
+ * most common non-empty tag, unless empty cells are in the majority.
+ * Each level therefore summarises a 2^k by 2^k block of the grid.
+ *
+ * When a cell of the grid changes, only the cells above it are
+ * recomputed, and only until a level is reached where nothing changes.
+ */
+public class TagPyramid
+{
+    // The number of cells in the smallest level, along its longer side.
+    private static final int TOP_SIZE = 1;
+
+    // The levels; levels[0] is the grid itself.
+    private final byte[][] levels;
+    // The width and depth of each level.
+    private final int[] widths, depths;
+
+    /**
+     * Create a pyramid over the given grid. The grid is shared, not
+     * copied; call rebuild or update after it changes.
+     * @param grid The tags, in row order.
+     * @param depth The number of rows in the grid.
+     * @param width The number of columns in the grid.
+     */
+    public TagPyramid(byte[] grid, int depth, int width)
+    {
+        int count = 1;
+        for(int size = Math.max(depth, width); size > TOP_SIZE; size = (size + 1) / 2) {
+            count++;
+        }
+        levels = new byte[count][];
+        widths = new int[count];
+        depths = new int[count];
+        levels[0] = grid;
+        widths[0] = width;
+        depths[0] = depth;
+        for(int k = 1; k < count; k++) {
+            widths[k] = (widths[k - 1] + 1) / 2;
+            depths[k] = (depths[k - 1] + 1) / 2;
+            levels[k] = new byte[widths[k] * depths[k]];
+        }
+    }
+
+    /**
+     * Recompute every level above the grid.
+     */
+    public void rebuild()
+    {
+        for(int k = 1; k < levels.length; k++) {
+            for(int row = 0; row < depths[k]; row++) {
+                for(int col = 0; col < widths[k]; col++) {
+                    levels[k][row * widths[k] + col] = summarise(k - 1, row * 2, col * 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bring the levels up to date after one cell of the grid changed.
+     * @param cell The index of the changed cell, row * width + col.
+     */
+    public void update(int cell)
+    {
+        int row = cell / widths[0];
+        int col = cell - row * widths[0];
+        for(int k = 1; k < levels.length; k++) {
+            row >>= 1;
+            col >>= 1;
+            byte value = summarise(k - 1, row * 2, col * 2);
+            int index = row * widths[k] + col;
+            if(levels[k][index] == value) {
+                return;
+            }
+            levels[k][index] = value;
+        }
+    }
+
+    /**
+     * Make the levels above the grid a copy of another pyramid's.
+     * @param other A pyramid over a grid of the same size.
+     */
+    public void copyFrom(TagPyramid other)
+    {
+        for(int k = 1; k < levels.length; k++) {
+            System.arraycopy(other.levels[k], 0, levels[k], 0, levels[k].length);
+        }
+    }
+
+    /**
+     * @return The number of levels, including the grid.
+     */
+    public int getLevelCount()
+    {
+        return levels.length;
+    }
+
+    /**
+     * Return the tags of one level, in row order. The array must not
+     * be modified.
+     * @param level The level, 0 for the grid.
+     * @return The tags.
+     */
+    public byte[] getLevel(int level)
+    {
+        return levels[level];
+    }
+
+    /**
+     * @param level The level, 0 for the grid.
+     * @return The number of columns in the level.
+     */
+    public int getWidth(int level)
+    {
+        return widths[level];
+    }
+
+    /**
+     * @param level The level, 0 for the grid.
+     * @return The number of rows in the level.
+     */
+    public int getDepth(int level)
+    {
+        return depths[level];
+    }
+
+    /**
+     * Find the dominant tag of a 2x2 block. Cells beyond the edge of
+     * the level count as empty.
+     * @return The most common non-empty tag, or empty if empty cells
+     *         outnumber it.
+     */
+    private byte summarise(int level, int row, int col)
+    {
+        byte[] tags = levels[level];
+        int width = widths[level];
+        boolean right = col + 1 < width;
+        boolean below = row + 1 < depths[level];
+        int index = row * width + col;
+        byte a = tags[index];
+        byte b = right ? tags[index + 1] : 0;
+        byte c = below ? tags[index + width] : 0;
+        byte d = right && below ? tags[index + width + 1] : 0;
+
+        byte best = 0;
+        int bestCount = 0;
+        int empty = 0;
+        for(int i = 0; i < 4; i++) {
+            byte value = i == 0 ? a : i == 1 ? b : i == 2 ? c : d;
+            if(value == 0) {
+                empty++;
+            }
+            else {
+                int count = (a == value ? 1 : 0) + (b == value ? 1 : 0)
+                          + (c == value ? 1 : 0) + (d == value ? 1 : 0);
+                if(count > bestCount) {
+                    best = value;
+                    bestCount = count;
+                }
+            }
+        }
+        return empty > bestCount ? 0 : best;
+    }
+}
@@ -0,0 +1,648 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A record of every step of one run, from which the state at any
+ * recorded step can be rebuilt. Every keyframeInterval steps the whole
+ * state is written, in the checkpoint encoding; each step in between is
+ * written as a delta against the step before. Rebuilding a step loads
+ * the nearest keyframe at or before it and applies the deltas after.
+ *
+ * A delta lists the animals and plants that have left the lists, the
+ * new ones appended to them, and the survivors whose state differs from
+ * what one step of ageing predicts: moving, eating and dying. On a
+ * night step nothing acts and the delta is a few bytes.
+ *
+ * A timeline is kept in a directory holding a data file of keyframes
+ * and deltas and an index giving the position of each step.
+ */
+public class Timeline
+{
+    // The names of the files within the directory.
+    public static final String DATA_NAME = "timeline.dat";
+    public static final String INDEX_NAME = "timeline.idx";
+    // Identifies a timeline index.
+    public static final int INDEX_MAGIC = 0x5050544c;   // "PPTL"
+    public static final int INDEX_VERSION = 1;
+
+    // Kinds of index entry.
+    private static final int KEYFRAME = 1;
+    private static final int DELTA = 2;
+    // Sizes in bytes of the index header and of each index entry.
+    private static final int INDEX_HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 24;
+    // Bits of a delta's change mask.
+    private static final int CELL_CHANGED = 1;
+    private static final int AGE_CHANGED = 2;
+    private static final int FOOD_CHANGED = 4;
+    private static final int FLAGS_CHANGED = 8;
+
+    // The number of steps between keyframes.
+    private final int keyframeInterval;
+    // The keyframes and deltas.
+    private final FileChannel data;
+    // The index.
+    private final FileChannel index;
+    // The position of each keyframe and delta in the data file, by step.
+    private final TreeMap<Integer, Long> keyframes;
+    private final TreeMap<Integer, Long> deltas;
+    // The length of each delta, by step.
+    private final Map<Integer, Integer> deltaLengths;
+
+    // The state most recently recorded, and the objects it describes,
+    // against which the next delta is taken.
+    private WorldState previous;
+    private Object[] previousAnimals;
+    private Object[] previousPlants;
+
+    /**
+     * Create an empty timeline, replacing any already in the directory.
+     * @param directory The directory to keep it in; created if necessary.
+     * @param keyframeInterval The number of steps between keyframes.
+     * @throws IOException If the files cannot be created.
+     */
+    public Timeline(File directory, int keyframeInterval) throws IOException
+    {
+        this(directory, Math.max(1, keyframeInterval), true);
+    }
+
+    /**
+     * Open a timeline that has already been recorded, e.g. to inspect an
+     * earlier run. Further steps may be recorded to it.
+     * @param directory The directory holding it.
+     * @throws IOException If it cannot be read.
+     */
+    public Timeline(File directory) throws IOException
+    {
+        this(directory, 0, false);
+    }
+
+    /**
+     * Create or open a timeline.
+     */
+    private Timeline(File directory, int interval, boolean create) throws IOException
+    {
+        if(create && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        keyframes = new TreeMap<>();
+        deltas = new TreeMap<>();
+        deltaLengths = new TreeMap<>();
+        data = open(new File(directory, DATA_NAME), create);
+        index = open(new File(directory, INDEX_NAME), create);
+        if(create) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+            header.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putInt(interval).flip();
+            writeFully(index, header, 0);
+        }
+        else {
+            interval = readIndex();
+        }
+        keyframeInterval = interval;
+    }
+
+    /**
+     * Record the state after a step. A step that is already recorded is
+     * not written again: as runs are deterministic it would be the same.
+     * @param step The step that has finished.
+     * @param acted Whether the animals and plants acted in the step,
+     *              i.e. it was not night.
+     * @param field The field of animals.
+     * @param plantField The field of plants.
+     * @param animals The animals, in the order they act.
+     * @param plants The plants, in the order they act.
+     * @throws IOException If the timeline cannot be written.
+     */
+    public void record(int step, boolean acted, Field field, Field plantField,
+                       List<Animal> animals, List<Plant> plants) throws IOException
+    {
+        WorldState state = WorldState.capture(step, field, plantField, animals, plants);
+        Object[] currentAnimals = animals.toArray();
+        Object[] currentPlants = plants.toArray();
+        if(!contains(step)) {
+            long position = data.size();
+            if(previous == null || previous.step != step - 1 || step % keyframeInterval == 0) {
+                Checkpoint.write(data, position, state);
+                keyframes.put(step, position);
+                writeEntry(step, KEYFRAME, position, Checkpoint.sizeOf(state));
+            }
+            else {
+                byte[] delta = encodeDelta(state, acted, currentAnimals, currentPlants);
+                writeFully(data, ByteBuffer.wrap(delta), position);
+                deltas.put(step, position);
+                deltaLengths.put(step, delta.length);
+                writeEntry(step, DELTA, position, delta.length);
+            }
+        }
+        previous = state;
+        previousAnimals = currentAnimals;
+        previousPlants = currentPlants;
+    }
+
+    /**
+     * Rebuild the state at a recorded step.
+     * @param step The step wanted.
+     * @return The state at that step.
+     * @throws IOException If the step was not recorded or the timeline
+     *                     cannot be read.
+     */
+    public WorldState load(int step) throws IOException
+    {
+        Map.Entry<Integer, Long> keyframe = keyframes.floorEntry(step);
+        if(keyframe == null) {
+            throw new IOException("Step " + step + " is not in the timeline");
+        }
+        WorldState state = Checkpoint.read(data, keyframe.getValue());
+        for(int s = keyframe.getKey() + 1; s <= step; s++) {
+            Long position = deltas.get(s);
+            if(position == null) {
+                throw new IOException("Step " + s + " is not in the timeline");
+            }
+            ByteBuffer delta = ByteBuffer.allocate(deltaLengths.get(s));
+            while(delta.hasRemaining()) {
+                if(data.read(delta, position + delta.position()) < 0) {
+                    throw new IOException("Timeline is truncated at step " + s);
+                }
+            }
+            delta.flip();
+            state = applyDelta(state, delta);
+        }
+        return state;
+    }
+
+    /**
+     * @param step A step.
+     * @return true if the state at that step has been recorded.
+     */
+    public boolean contains(int step)
+    {
+        return keyframes.containsKey(step) || deltas.containsKey(step);
+    }
+
+    /**
+     * @return true if no step has been recorded.
+     */
+    public boolean isEmpty()
+    {
+        return keyframes.isEmpty();
+    }
+
+    /**
+     * @return The number of steps between keyframes.
+     */
+    public int getKeyframeInterval()
+    {
+        return keyframeInterval;
+    }
+
+    /**
+     * @return The number of bytes of keyframes and deltas written.
+     * @throws IOException If the size cannot be read.
+     */
+    public long getSize() throws IOException
+    {
+        return data.size();
+    }
+
+    /**
+     * Forget every recorded step, e.g. because the simulation has been
+     * reset and a new run is starting.
+     * @throws IOException If the files cannot be truncated.
+     */
+    public void clear() throws IOException
+    {
+        keyframes.clear();
+        deltas.clear();
+        deltaLengths.clear();
+        previous = null;
+        previousAnimals = null;
+        previousPlants = null;
+        data.truncate(0);
+        index.truncate(INDEX_HEADER_SIZE);
+    }
+
+    /**
+     * Close the files.
+     * @throws IOException If they cannot be closed.
+     */
+    public void close() throws IOException
+    {
+        data.close();
+        index.close();
+    }
+
+    /**
+     * Encode the difference between the previous state and this one.
+     * Removals are found by walking both lists together, since the
+     * lists keep their order and new entities are only appended.
+     */
+    private byte[] encodeDelta(WorldState state, boolean acted,
+                               Object[] currentAnimals, Object[] currentPlants)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(state.step).putLong(state.randomState).put((byte) (acted ? 1 : 0));
+        out.write(header.array(), 0, header.capacity());
+        int tick = acted ? 1 : 0;
+
+        // Animals.
+        int[] survivors = new int[state.animalCount];
+        int kept = align(previousAnimals, currentAnimals, survivors, out);
+        int changed = 0;
+        for(int j = 0; j < kept; j++) {
+            if(animalMask(state, j, survivors[j], tick) != 0) {
+                changed++;
+            }
+        }
+        writeCount(out, changed);
+        int last = -1;
+        for(int j = 0; j < kept; j++) {
+            int p = survivors[j];
+            int mask = animalMask(state, j, p, tick);
+            if(mask != 0) {
+                writeCount(out, j - last - 1);
+                last = j;
+                out.write(mask);
+                if((mask & CELL_CHANGED) != 0) {
+                    writeSigned(out, state.animalCells[j] - previous.animalCells[p]);
+                }
+                if((mask & AGE_CHANGED) != 0) {
+                    writeSigned(out, state.ages[j] - previous.ages[p] - tick);
+                }
+                if((mask & FOOD_CHANGED) != 0) {
+                    writeSigned(out, state.foodLevels[j] - previous.foodLevels[p] + tick);
+                }
+                if((mask & FLAGS_CHANGED) != 0) {
+                    out.write(state.animalFlags[j]);
+                }
+            }
+        }
+        writeCount(out, state.animalCount - kept);
+        for(int j = kept; j < state.animalCount; j++) {
+            writeCount(out, state.animalCells[j] + 1);
+            writeSigned(out, state.ages[j]);
+            writeSigned(out, state.foodLevels[j]);
+            out.write(state.tags[j]);
+            out.write(state.animalFlags[j]);
+        }
+
+        // Plants.
+        survivors = new int[state.plantCount];
+        kept = align(previousPlants, currentPlants, survivors, out);
+        changed = 0;
+        for(int j = 0; j < kept; j++) {
+            if(plantMask(state, j, survivors[j], tick) != 0) {
+                changed++;
+            }
+        }
+        writeCount(out, changed);
+        last = -1;
+        for(int j = 0; j < kept; j++) {
+            int p = survivors[j];
+            int mask = plantMask(state, j, p, tick);
+            if(mask != 0) {
+                writeCount(out, j - last - 1);
+                last = j;
+                out.write(mask);
+                if((mask & CELL_CHANGED) != 0) {
+                    writeSigned(out, state.plantCells[j] - previous.plantCells[p]);
+                }
+                if((mask & AGE_CHANGED) != 0) {
+                    writeSigned(out, state.sizes[j] - previous.sizes[p] - tick);
+                }
+                if((mask & FLAGS_CHANGED) != 0) {
+                    out.write(state.plantFlags[j]);
+                }
+            }
+        }
+        writeCount(out, state.plantCount - kept);
+        for(int j = kept; j < state.plantCount; j++) {
+            writeCount(out, state.plantCells[j] + 1);
+            writeSigned(out, state.sizes[j]);
+            out.write(state.plantFlags[j]);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Match the current list against the previous one and write the
+     * positions of the entities that have been removed.
+     * @param survivors Receives, for each surviving entity, its position
+     *                  in the previous list.
+     * @return The number of survivors; they come first in the current
+     *         list and everything after them is new.
+     */
+    private static int align(Object[] before, Object[] after, int[] survivors,
+                             ByteArrayOutputStream out)
+    {
+        int kept = 0;
+        int[] removed = new int[before.length];
+        int removedCount = 0;
+        for(int i = 0; i < before.length; i++) {
+            if(kept < after.length && after[kept] == before[i]) {
+                survivors[kept++] = i;
+            }
+            else {
+                removed[removedCount++] = i;
+            }
+        }
+        writeCount(out, removedCount);
+        int last = -1;
+        for(int r = 0; r < removedCount; r++) {
+            writeCount(out, removed[r] - last - 1);
+            last = removed[r];
+        }
+        return kept;
+    }
+
+    /**
+     * @return The changes to a surviving animal, as a mask.
+     */
+    private int animalMask(WorldState state, int j, int p, int tick)
+    {
+        int mask = 0;
+        if(state.animalCells[j] != previous.animalCells[p]) {
+            mask |= CELL_CHANGED;
+        }
+        if(state.ages[j] != previous.ages[p] + tick) {
+            mask |= AGE_CHANGED;
+        }
+        if(state.foodLevels[j] != previous.foodLevels[p] - tick) {
+            mask |= FOOD_CHANGED;
+        }
+        if(state.animalFlags[j] != previous.animalFlags[p]) {
+            mask |= FLAGS_CHANGED;
+        }
+        return mask;
+    }
+
+    /**
+     * @return The changes to a surviving plant, as a mask; its size is
+     *         recorded under AGE_CHANGED.
+     */
+    private int plantMask(WorldState state, int j, int p, int tick)
+    {
+        int mask = 0;
+        if(state.plantCells[j] != previous.plantCells[p]) {
+            mask |= CELL_CHANGED;
+        }
+        if(state.sizes[j] != previous.sizes[p] + tick) {
+            mask |= AGE_CHANGED;
+        }
+        if(state.plantFlags[j] != previous.plantFlags[p]) {
+            mask |= FLAGS_CHANGED;
+        }
+        return mask;
+    }
+
+    /**
+     * Apply one step's delta to the state of the step before.
+     * @return The new state.
+     */
+    private static WorldState applyDelta(WorldState before, ByteBuffer in)
+    {
+        int step = in.getInt();
+        long randomState = in.getLong();
+        int tick = in.get();
+
+        // Animals.
+        int[] survivors = readSurvivors(in, before.animalCount);
+        int kept = survivors.length;
+        int[] cells = new int[kept];
+        int[] ages = new int[kept];
+        int[] foodLevels = new int[kept];
+        byte[] tags = new byte[kept];
+        byte[] flags = new byte[kept];
+        for(int j = 0; j < kept; j++) {
+            int p = survivors[j];
+            cells[j] = before.animalCells[p];
+            ages[j] = before.ages[p] + tick;
+            foodLevels[j] = before.foodLevels[p] - tick;
+            tags[j] = before.tags[p];
+            flags[j] = before.animalFlags[p];
+        }
+        int changed = readCount(in);
+        int j = -1;
+        for(int c = 0; c < changed; c++) {
+            j += readCount(in) + 1;
+            int mask = in.get();
+            if((mask & CELL_CHANGED) != 0) {
+                cells[j] += readSigned(in);
+            }
+            if((mask & AGE_CHANGED) != 0) {
+                ages[j] += readSigned(in);
+            }
+            if((mask & FOOD_CHANGED) != 0) {
+                foodLevels[j] += readSigned(in);
+            }
+            if((mask & FLAGS_CHANGED) != 0) {
+                flags[j] = in.get();
+            }
+        }
+        int added = readCount(in);
+        int[] newCells = new int[added];
+        int[] newAges = new int[added];
+        int[] newFood = new int[added];
+        byte[] newTags = new byte[added];
+        byte[] newFlags = new byte[added];
+        for(int a = 0; a < added; a++) {
+            newCells[a] = readCount(in) - 1;
+            newAges[a] = readSigned(in);
+            newFood[a] = readSigned(in);
+            newTags[a] = in.get();
+            newFlags[a] = in.get();
+        }
+
+        // Plants.
+        int[] plantSurvivors = readSurvivors(in, before.plantCount);
+        int plantsKept = plantSurvivors.length;
+        int[] plantCells = new int[plantsKept];
+        int[] sizes = new int[plantsKept];
+        byte[] plantFlags = new byte[plantsKept];
+        for(int k = 0; k < plantsKept; k++) {
+            int p = plantSurvivors[k];
+            plantCells[k] = before.plantCells[p];
+            sizes[k] = before.sizes[p] + tick;
+            plantFlags[k] = before.plantFlags[p];
+        }
+        changed = readCount(in);
+        j = -1;
+        for(int c = 0; c < changed; c++) {
+            j += readCount(in) + 1;
+            int mask = in.get();
+            if((mask & CELL_CHANGED) != 0) {
+                plantCells[j] += readSigned(in);
+            }
+            if((mask & AGE_CHANGED) != 0) {
+                sizes[j] += readSigned(in);
+            }
+            if((mask & FLAGS_CHANGED) != 0) {
+                plantFlags[j] = in.get();
+            }
+        }
+        int plantsAdded = readCount(in);
+
+        WorldState after = new WorldState(before.depth, before.width, kept + added, plantsKept + plantsAdded);
+        after.step = step;
+        after.randomState = randomState;
+        System.arraycopy(cells, 0, after.animalCells, 0, kept);
+        System.arraycopy(ages, 0, after.ages, 0, kept);
+        System.arraycopy(foodLevels, 0, after.foodLevels, 0, kept);
+        System.arraycopy(tags, 0, after.tags, 0, kept);
+        System.arraycopy(flags, 0, after.animalFlags, 0, kept);
+        System.arraycopy(newCells, 0, after.animalCells, kept, added);
+        System.arraycopy(newAges, 0, after.ages, kept, added);
+        System.arraycopy(newFood, 0, after.foodLevels, kept, added);
+        System.arraycopy(newTags, 0, after.tags, kept, added);
+        System.arraycopy(newFlags, 0, after.animalFlags, kept, added);
+        System.arraycopy(plantCells, 0, after.plantCells, 0, plantsKept);
+        System.arraycopy(sizes, 0, after.sizes, 0, plantsKept);
+        System.arraycopy(plantFlags, 0, after.plantFlags, 0, plantsKept);
+        for(int a = plantsKept; a < plantsKept + plantsAdded; a++) {
+            after.plantCells[a] = readCount(in) - 1;
+            after.sizes[a] = readSigned(in);
+            after.plantFlags[a] = in.get();
+        }
+        return after;
+    }
+
+    /**
+     * Read the positions of removed entities.
+     * @param count The number of entities before the step.
+     * @return For each survivor, its position before the step.
+     */
+    private static int[] readSurvivors(ByteBuffer in, int count)
+    {
+        int removedCount = readCount(in);
+        boolean[] removed = new boolean[count];
+        int last = -1;
+        for(int r = 0; r < removedCount; r++) {
+            last += readCount(in) + 1;
+            removed[last] = true;
+        }
+        int[] survivors = new int[count - removedCount];
+        int kept = 0;
+        for(int i = 0; i < count; i++) {
+            if(!removed[i]) {
+                survivors[kept++] = i;
+            }
+        }
+        return survivors;
+    }
+
+    /**
+     * Read the index of an existing timeline.
+     * @return The keyframe interval.
+     */
+    private int readIndex() throws IOException
+    {
+        long size = index.size();
+        ByteBuffer in = ByteBuffer.allocate((int) size);
+        while(in.hasRemaining()) {
+            if(index.read(in, in.position()) < 0) {
+                break;
+            }
+        }
+        in.flip();
+        if(in.remaining() < INDEX_HEADER_SIZE || in.getInt() != INDEX_MAGIC) {
+            throw new IOException("Not a timeline index");
+        }
+        int version = in.getInt();
+        if(version != INDEX_VERSION) {
+            throw new IOException("Unsupported timeline version " + version);
+        }
+        int interval = in.getInt();
+        while(in.remaining() >= ENTRY_SIZE) {
+            int step = in.getInt();
+            int kind = in.getInt();
+            long position = in.getLong();
+            long length = in.getLong();
+            if(kind == KEYFRAME) {
+                keyframes.put(step, position);
+            }
+            else {
+                deltas.put(step, position);
+                deltaLengths.put(step, (int) length);
+            }
+        }
+        return interval;
+    }
+
+    /**
+     * Append an entry to the index.
+     */
+    private void writeEntry(int step, int kind, long position, long length) throws IOException
+    {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putInt(step).putInt(kind).putLong(position).putLong(length).flip();
+        writeFully(index, entry, index.size());
+    }
+
+    /**
+     * Open one of the timeline's files.
+     */
+    private static FileChannel open(File file, boolean create) throws IOException
+    {
+        if(create) {
+            return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Write the whole of a buffer at the given position.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException
+    {
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // Variable-length integers: seven bits per byte, low bits first.
+    // Signed values are zigzag encoded so that small negative numbers
+    // are short too.
+
+    private static void writeCount(ByteArrayOutputStream out, int value)
+    {
+        while((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeSigned(ByteArrayOutputStream out, int value)
+    {
+        writeCount(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readCount(ByteBuffer in)
+    {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int readSigned(ByteBuffer in)
+    {
+        int value = readCount(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel: a clock of ticks, and a set of items
+ * each due at some future tick. Advancing the clock yields just the
+ * items due at the new tick, without looking at any others.
+ *
+ * The wheel has several levels of SLOTS slots each. An item due within
+ * the current run of SLOTS ticks waits in the bottom level, in the slot
+ * for its tick; one due later waits in a higher level, in a slot that
+ * covers a run of ticks SLOTS times as long as a slot of the level
+ * below. When the clock reaches the start of such a run, the items of
+ * its slot are moved down to the level below, and so on until they
+ * reach the bottom. Scheduling and firing an item therefore take a
+ * constant amount of work for each level it passes through.
+ */
+public class TimingWheel
+{
+    // The number of bits of a tick used to pick a slot at each level.
+    private static final int SLOT_BITS = 6;
+    // The number of slots at each level.
+    private static final int SLOTS = 1 << SLOT_BITS;
+    // Picks out the slot at one level.
+    private static final int SLOT_MASK = SLOTS - 1;
+    // The number of levels; items can be due up to 2^36 ticks ahead.
+    private static final int LEVELS = 6;
+
+    // The current tick.
+    private long tick;
+    // The slots of each level, created when first used.
+    private final Slot[][] slots = new Slot[LEVELS][SLOTS];
+    // The number of items scheduled and not yet fired.
+    private int size;
+
+    /**
+     * Create a wheel whose clock starts at tick zero.
+     */
+    public TimingWheel()
+    {
+        tick = 0;
+    }
+
+    /**
+     * @return The current tick.
+     */
+    public long getTick()
+    {
+        return tick;
+    }
+
+    /**
+     * @return The number of items waiting to fire.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Schedule an item to fire at a tick. An item due now or earlier
+     * fires at the next tick.
+     * @param item The item.
+     * @param due The tick at which it is due.
+     */
+    public void schedule(Object item, long due)
+    {
+        if(due <= tick) {
+            due = tick + 1;
+        }
+        if(((due ^ tick) >>> (SLOT_BITS * LEVELS)) != 0) {
+            throw new IllegalArgumentException("Tick " + due + " is too far ahead of " + tick);
+        }
+        place(item, due);
+        size++;
+    }
+
+    /**
+     * Advance the clock by one tick.
+     * @param due Receives the items due at the new tick.
+     */
+    public void advance(List<Object> due)
+    {
+        tick++;
+        // At the start of a run of ticks, bring down the items of the
+        // higher levels whose slot has come round.
+        for(int level = 1; level < LEVELS
+                && ((tick >>> (SLOT_BITS * (level - 1))) & SLOT_MASK) == 0; level++) {
+            Slot slot = slots[level][(int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK];
+            if(slot != null && slot.count > 0) {
+                Object[] items = Arrays.copyOf(slot.items, slot.count);
+                long[] dues = Arrays.copyOf(slot.dues, slot.count);
+                slot.clear();
+                for(int i = 0; i < items.length; i++) {
+                    place(items[i], dues[i]);
+                }
+            }
+        }
+        Slot slot = slots[0][(int) tick & SLOT_MASK];
+        if(slot != null && slot.count > 0) {
+            for(int i = 0; i < slot.count; i++) {
+                due.add(slot.items[i]);
+            }
+            size -= slot.count;
+            slot.clear();
+        }
+    }
+
+    /**
+     * Put an item in the slot for its tick, at the lowest level whose
+     * current run of ticks includes it.
+     */
+    private void place(Object item, long due)
+    {
+        int level = 0;
+        while(((due ^ tick) >>> (SLOT_BITS * (level + 1))) != 0) {
+            level++;
+        }
+        int index = (int) (due >>> (SLOT_BITS * level)) & SLOT_MASK;
+        Slot slot = slots[level][index];
+        if(slot == null) {
+            slot = new Slot();
+            slots[level][index] = slot;
+        }
+        slot.add(item, due);
+    }
+
+    /**
+     * The items waiting in one slot, with the tick each is due.
+     */
+    private static class Slot
+    {
+        private Object[] items = new Object[8];
+        private long[] dues = new long[8];
+        private int count;
+
+        void add(Object item, long due)
+        {
+            if(count == items.length) {
+                items = Arrays.copyOf(items, count * 2);
+                dues = Arrays.copyOf(dues, count * 2);
+            }
+            items[count] = item;
+            dues[count] = due;
+            count++;
+        }
+
+        void clear()
+        {
+            Arrays.fill(items, 0, count, null);
+            count = 0;
+        }
+    }
+}
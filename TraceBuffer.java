@@ -0,0 +1,105 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size ring of trace records owned by a single thread.
+ * The owning thread is the only writer and a draining thread is the
+ * only reader, so no locks are needed: each side publishes its
+ * position with an ordered store and the other side reads it.
+ * When the ring is full new records are dropped (and counted) rather
+ * than making the simulation wait.
+ */
+public class TraceBuffer
+{
+    // Number of long words used by each record.
+    private static final int WORDS_PER_RECORD = 2;
+
+    // The records; capacity is a power of two so that a mask can be used.
+    private final long[] ring;
+    private final int mask;
+    // Number of records ever written, published by the writer.
+    private final AtomicLong head;
+    // Number of records ever read, published by the reader.
+    private final AtomicLong tail;
+    // Number of records discarded because the ring was full.
+    private final AtomicLong dropped;
+    // The thread that owns this buffer.
+    private final Thread owner;
+
+    /**
+     * Create a buffer able to hold the given number of records.
+     * @param capacity The number of records; rounded up to a power of two.
+     * @param owner The writing thread.
+     */
+    public TraceBuffer(int capacity, Thread owner)
+    {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        ring = new long[size * WORDS_PER_RECORD];
+        mask = size - 1;
+        head = new AtomicLong();
+        tail = new AtomicLong();
+        dropped = new AtomicLong();
+        this.owner = owner;
+    }
+
+    /**
+     * Append a record. Must only be called by the owning thread.
+     * @param header The first word of the record.
+     * @param position The second word of the record.
+     */
+    public void write(long header, long position)
+    {
+        long h = head.get();
+        if(h - tail.get() > mask) {
+            dropped.lazySet(dropped.get() + 1);
+            return;
+        }
+        int slot = (int) (h & mask) * WORDS_PER_RECORD;
+        ring[slot] = header;
+        ring[slot + 1] = position;
+        head.lazySet(h + 1);
+    }
+
+    /**
+     * Pass every record written since the last drain to the given sink.
+     * Must only be called by one reader at a time.
+     * @param sink Receives the two words of each record.
+     * @return The number of records drained.
+     */
+    public int drain(EventTracer.Sink sink)
+    {
+        long t = tail.get();
+        long h = head.get();
+        for(long i = t; i < h; i++) {
+            int slot = (int) (i & mask) * WORDS_PER_RECORD;
+            sink.record(ring[slot], ring[slot + 1]);
+        }
+        tail.lazySet(h);
+        return (int) (h - t);
+    }
+
+    /**
+     * @return The number of records lost because the buffer was full.
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return The name of the thread writing to this buffer.
+     */
+    public String getOwner()
+    {
+        return owner.getName();
+    }
+
+    /**
+     * Once the owner has finished no more records can be written, so a
+     * buffer that is drained after this returns true is done with.
+     * @return true if the writing thread has finished.
+     */
+    public boolean isOwnerFinished()
+    {
+        return !owner.isAlive();
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A simulation observer that drains the EventTracer at the end of every
+ * step, so that the per-thread buffers never fill up. Records are
+ * appended to a binary trace file or, if no file is given, turned into
+ * JFR events.
+ */
+public class TraceRecorder implements SimulationObserver
+{
+    // The binary trace file, or null to export to JFR.
+    private File file;
+    // The number of records written so far.
+    private long written;
+
+    /**
+     * Create a recorder that appends to the given trace file.
+     * @param file The binary trace file, or null to export to JFR.
+     */
+    public TraceRecorder(File file)
+    {
+        this.file = file;
+        written = 0;
+    }
+
+    /**
+     * Nothing happens at the start of a step.
+     */
+    public void stepStarted(int step)
+    {
+    }
+
+    /**
+     * Drain the records of the step that has finished.
+     */
+    public void stepFinished(int step, Field field, Field plantField)
+    {
+        if(file == null) {
+            written += EventTracer.exportToJfr();
+        }
+        else {
+            try {
+                written += EventTracer.exportBinary(file);
+            }
+            catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Population changes are not traced.
+     */
+    public void populationChanged(int step, int[] counts)
+    {
+    }
+
+    /**
+     * Settling is not traced.
+     */
+    public void settled(int step, String description)
+    {
+    }
+
+    /**
+     * @return The number of records written so far.
+     */
+    public long getWritten()
+    {
+        return written;
+    }
+}
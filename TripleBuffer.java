@@ -0,0 +1,84 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Three buffers shared between one producer and one consumer. The
+ * producer always has a back buffer to fill and never waits; when it
+ * publishes, the back buffer is exchanged with the middle one. The
+ * consumer exchanges its front buffer with the middle one whenever a
+ * newer buffer has been published, so it always sees the newest
+ * complete buffer and any older ones are dropped.
+ *
+ * @param <T> The type of the buffers.
+ */
+public class TripleBuffer<T>
+{
+    // Set in the middle index when it holds a buffer not yet taken.
+    private static final int FRESH = 4;
+    // Selects the buffer number from the middle index.
+    private static final int INDEX = 3;
+
+    // The three buffers.
+    private final Object[] buffers;
+    // The buffer being filled by the producer.
+    private int back;
+    // The buffer being read by the consumer.
+    private int front;
+    // The buffer waiting between them, plus the FRESH flag.
+    private final AtomicInteger middle;
+
+    /**
+     * Create a triple buffer from three distinct buffers.
+     * @param first The initial back buffer.
+     * @param second The initial middle buffer.
+     * @param third The initial front buffer.
+     */
+    public TripleBuffer(T first, T second, T third)
+    {
+        buffers = new Object[] { first, second, third };
+        back = 0;
+        middle = new AtomicInteger(1);
+        front = 2;
+    }
+
+    /**
+     * @return The buffer the producer should fill next.
+     */
+    @SuppressWarnings("unchecked")
+    public T getBack()
+    {
+        return (T) buffers[back];
+    }
+
+    /**
+     * Make the filled back buffer available to the consumer, replacing
+     * any buffer it has not yet taken. Called by the producer only.
+     */
+    public void publish()
+    {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Take the newest published buffer, if there is one the consumer
+     * has not already seen. Called by the consumer only.
+     * @return The newest buffer, or null if nothing new is available.
+     */
+    @SuppressWarnings("unchecked")
+    public T takeNewest()
+    {
+        if((middle.get() & FRESH) == 0) {
+            return null;
+        }
+        front = middle.getAndSet(front) & INDEX;
+        return (T) buffers[front];
+    }
+
+    /**
+     * @return The buffer the consumer took most recently.
+     */
+    @SuppressWarnings("unchecked")
+    public T getFront()
+    {
+        return (T) buffers[front];
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Decide the order in which the animals act in each step, by arranging
+ * the list of animals before they act.
+ *
+ * In SPAWN_ORDER the list is left as it is: animals act in the order
+ * they were created, newborns last. In RANDOM the list is shuffled at
+ * every step. In GROUPED the animals of each species are kept together,
+ * and every few steps each group is sorted along a Hilbert curve
+ * through the field, so that animals that act one after another are
+ * near each other and touch nearby parts of the field. Between sorts
+ * the newborns are only moved into their species' group.
+ */
+public class UpdateScheduler
+{
+    // The orders in which animals can act.
+    public static final int SPAWN_ORDER = 0;
+    public static final int GROUPED = 1;
+    public static final int RANDOM = 2;
+
+    // The default number of steps between sorts along the curve.
+    public static final int DEFAULT_SORT_INTERVAL = 16;
+
+    // The order in which animals act.
+    private final int order;
+    // The number of steps between sorts along the curve.
+    private final int sortInterval;
+    // A shared random number generator for the random order.
+    private final Random rand = Randomizer.getRandom();
+
+    // The sort keys, reused from step to step.
+    private long[] keys = new long[0];
+
+    /**
+     * Create a scheduler.
+     * @param order SPAWN_ORDER, GROUPED or RANDOM.
+     * @param sortInterval In the grouped order, the number of steps
+     *                     between sorts along the curve.
+     */
+    public UpdateScheduler(int order, int sortInterval)
+    {
+        if(order < SPAWN_ORDER || order > RANDOM) {
+            throw new IllegalArgumentException("Unknown update order " + order);
+        }
+        if(sortInterval < 1) {
+            throw new IllegalArgumentException("Sort interval must be positive");
+        }
+        this.order = order;
+        this.sortInterval = sortInterval;
+    }
+
+    /**
+     * @return The order in which animals act.
+     */
+    public int getOrder()
+    {
+        return order;
+    }
+
+    /**
+     * Arrange the animals in the order they are to act at a step.
+     * Whether the grouped order is sorted depends only on the step, so
+     * a run restored from a checkpoint continues as it would have.
+     * @param animals The animals, rearranged in place.
+     * @param step The step about to be simulated.
+     * @param field The field of animals.
+     */
+    public void arrange(List<Animal> animals, int step, Field field)
+    {
+        if(order == RANDOM) {
+            Collections.shuffle(animals, rand);
+        }
+        else if(order == GROUPED) {
+            if(step % sortInterval == 0) {
+                sort(animals, field);
+            }
+            else {
+                group(animals);
+            }
+        }
+    }
+
+    /**
+     * Gather the animals of each species together, keeping their order
+     * within the species.
+     */
+    private void group(List<Animal> animals)
+    {
+        int size = animals.size();
+        Animal[] from = animals.toArray(new Animal[size]);
+        int[] starts = new int[Species.count() + 1];
+        boolean grouped = true;
+        int previous = 0;
+        for(int i = 0; i < size; i++) {
+            int species = from[i].getSpecies();
+            starts[species + 1]++;
+            grouped &= species >= previous;
+            previous = species;
+        }
+        if(grouped) {
+            return;
+        }
+        for(int tag = 0; tag < Species.count(); tag++) {
+            starts[tag + 1] += starts[tag];
+        }
+        Animal[] to = new Animal[size];
+        for(int i = 0; i < size; i++) {
+            to[starts[from[i].getSpecies()]++] = from[i];
+        }
+        for(int i = 0; i < size; i++) {
+            animals.set(i, to[i]);
+        }
+    }
+
+    /**
+     * Group the animals by species, and sort each group along the curve.
+     * An animal with no location goes at the end of its group.
+     */
+    private void sort(List<Animal> animals, Field field)
+    {
+        int size = animals.size();
+        int bits = curveBits(field);
+        // The key is the species, then the position along the curve
+        // (all ones for no location), then the index in the list.
+        int indexBits = 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 1));
+        int speciesBits = 32 - Integer.numberOfLeadingZeros(Species.count() - 1);
+        if(speciesBits + 2 * bits + 1 + indexBits > 63) {
+            // Too many cells to pack into a key; group only.
+            group(animals);
+            return;
+        }
+        Animal[] from = animals.toArray(new Animal[size]);
+        if(keys.length < size) {
+            keys = new long[Math.max(size, keys.length * 2)];
+        }
+        long noLocation = (1L << (2 * bits + 1)) - 1;
+        for(int i = 0; i < size; i++) {
+            Location location = from[i].getLocation();
+            long position = location == null ? noLocation
+                                             : hilbertIndex(location.getRow(), location.getCol(), bits);
+            keys[i] = ((long) from[i].getSpecies() << (2 * bits + 1) | position) << indexBits | i;
+        }
+        Arrays.sort(keys, 0, size);
+        long indexMask = (1L << indexBits) - 1;
+        for(int i = 0; i < size; i++) {
+            animals.set(i, from[(int) (keys[i] & indexMask)]);
+        }
+    }
+
+    /**
+     * @return The number of bits in each coordinate of a curve that
+     *         covers the field.
+     */
+    private static int curveBits(Field field)
+    {
+        int side = Math.max(field.getDepth(), field.getWidth());
+        return 32 - Integer.numberOfLeadingZeros(Math.max(side - 1, 1));
+    }
+
+    /**
+     * Return the position of a cell along a Hilbert curve that covers
+     * a square of 2^bits cells on a side. Cells next to each other
+     * along the curve are next to each other in the field.
+     * @param row The cell's row.
+     * @param col The cell's column.
+     * @param bits The number of bits in each coordinate.
+     * @return The position along the curve.
+     */
+    public static long hilbertIndex(int row, int col, int bits)
+    {
+        long index = 0;
+        int x = col;
+        int y = row;
+        for(int s = 1 << (bits - 1); s > 0; s >>>= 1) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            index += (long) s * s * ((3 * rx) ^ ry);
+            // Rotate the quadrant so the curve inside it joins up.
+            if(ry == 0) {
+                if(rx == 1) {
+                    x = s - 1 - (x & (s - 1));
+                    y = s - 1 - (y & (s - 1));
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,291 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The complete state of a simulation at one step, held in primitive
+ * arrays rather than as animal and plant objects: the step, the state
+ * of the shared random generator, and every animal and plant in the
+ * order they act. It is what checkpoints and timelines store, and can
+ * be turned back into a running simulation with apply.
+ *
+ * Each entity's location is held as an index into the field,
+ * row * width + col, or -1 once it has died. When only a region of
+ * interest is simulated individually, the state also holds the region
+ * and the numbers of each species in the MeanField blocks outside it.
+ */
+public class WorldState
+{
+    // Entity flags.
+    public static final int ALIVE = 1;
+    public static final int MALE = 2;
+    // Set when the entity occupies its location in the field. An
+    // animal can lose its place to another, e.g. a squirrel moving onto
+    // a plant, and still be alive.
+    public static final int IN_FIELD = 4;
+
+    // The size of the field.
+    final int depth, width;
+    // The step this is the state of.
+    int step;
+    // The state of the shared random generator.
+    long randomState;
+
+    // The animals: number, locations, ages, food levels, species tags
+    // and flags.
+    int animalCount;
+    int[] animalCells;
+    int[] ages;
+    int[] foodLevels;
+    byte[] tags;
+    byte[] animalFlags;
+
+    // The plants: number, locations, sizes and flags.
+    int plantCount;
+    int[] plantCells;
+    int[] sizes;
+    byte[] plantFlags;
+
+    // The region of interest as top, left, bottom and right, and the
+    // numbers of the MeanField blocks, or null when the whole world is
+    // held as entities.
+    int[] region;
+    double[] coarseNumbers;
+
+    /**
+     * Create a state with room for the given numbers of entities.
+     * @param depth The depth of the field.
+     * @param width The width of the field.
+     * @param animalCount The number of animals.
+     * @param plantCount The number of plants.
+     */
+    public WorldState(int depth, int width, int animalCount, int plantCount)
+    {
+        this.depth = depth;
+        this.width = width;
+        this.animalCount = animalCount;
+        animalCells = new int[animalCount];
+        ages = new int[animalCount];
+        foodLevels = new int[animalCount];
+        tags = new byte[animalCount];
+        animalFlags = new byte[animalCount];
+        this.plantCount = plantCount;
+        plantCells = new int[plantCount];
+        sizes = new int[plantCount];
+        plantFlags = new byte[plantCount];
+    }
+
+    /**
+     * Record the state of a simulation, including the shared random
+     * generator.
+     * @param step The current step.
+     * @param field The field of animals.
+     * @param plantField The field of plants.
+     * @param animals The animals, in the order they act.
+     * @param plants The plants, in the order they act.
+     * @return The state.
+     */
+    public static WorldState capture(int step, Field field, Field plantField,
+                                     List<Animal> animals, List<Plant> plants)
+    {
+        int width = field.getWidth();
+        WorldState state = new WorldState(field.getDepth(), width, animals.size(), plants.size());
+        state.step = step;
+        state.randomState = Randomizer.getState();
+        int i = 0;
+        for(Animal animal : animals) {
+            Location location = animal.getLocation();
+            int flags = animal.getGender() ? MALE : 0;
+            if(location != null) {
+                flags |= ALIVE;
+                if(field.getObjectAt(location) == animal) {
+                    flags |= IN_FIELD;
+                }
+            }
+            state.animalCells[i] = cellOf(location, width);
+            state.ages[i] = animal.getAge();
+            state.foodLevels[i] = animal.getFoodLevel();
+            state.tags[i] = (byte) Species.of(animal);
+            state.animalFlags[i] = (byte) flags;
+            i++;
+        }
+        i = 0;
+        for(Plant plant : plants) {
+            Location location = plant.getLocation();
+            int flags = 0;
+            if(location != null) {
+                flags |= ALIVE;
+                if(plantField.getObjectAt(location) == plant) {
+                    flags |= IN_FIELD;
+                }
+            }
+            state.plantCells[i] = cellOf(location, width);
+            state.sizes[i] = plant.getSize();
+            state.plantFlags[i] = (byte) flags;
+            i++;
+        }
+        return state;
+    }
+
+    /**
+     * Make a simulation's fields and lists hold this state, and put
+     * the shared random generator back in its recorded state.
+     * @param field The field of animals, of this state's size.
+     * @param plantField The field of plants, of this state's size.
+     * @param animals Receives the animals, in the order they act.
+     * @param plants Receives the plants, in the order they act.
+     */
+    public void apply(Field field, Field plantField, List<Animal> animals, List<Plant> plants)
+    {
+        if(field.getDepth() != depth || field.getWidth() != width) {
+            throw new IllegalArgumentException("State is for a field of " + depth + " by " + width);
+        }
+        field.clear();
+        plantField.clear();
+        animals.clear();
+        plants.clear();
+        // The entities are made with their saved state and put into the
+        // fields in bulk. Those that do not occupy their location, as
+        // when another has taken it, are left out of the field.
+        Animal[] restoredAnimals = new Animal[animalCount];
+        int[] placed = new int[animalCount];
+        for(int i = 0; i < animalCount; i++) {
+            int flags = animalFlags[i];
+            Location location = locationOf(animalCells[i], flags);
+            Animal animal = Species.restore(tags[i], field, plantField, location,
+                                            (flags & MALE) != 0, ages[i], foodLevels[i]);
+            if(animal == null) {
+                throw new IllegalArgumentException("Unknown animal species " + tags[i]);
+            }
+            restoredAnimals[i] = animal;
+            placed[i] = location != null && (flags & IN_FIELD) != 0 ? animalCells[i] : -1;
+        }
+        field.fill(restoredAnimals, placed, animalCount);
+        animals.addAll(Arrays.asList(restoredAnimals));
+
+        Plant[] restoredPlants = new Plant[plantCount];
+        placed = new int[plantCount];
+        for(int i = 0; i < plantCount; i++) {
+            int flags = plantFlags[i];
+            Location location = locationOf(plantCells[i], flags, field);
+            restoredPlants[i] = new Plant(plantField, location, sizes[i]);
+            placed[i] = location != null && (flags & IN_FIELD) != 0 ? plantCells[i] : -1;
+        }
+        plantField.fill(restoredPlants, placed, plantCount);
+        plants.addAll(Arrays.asList(restoredPlants));
+        Randomizer.setState(randomState);
+    }
+
+    /**
+     * Record that only a region was simulated individually, and the
+     * numbers of the blocks outside it.
+     * @param region The region as top, left, bottom and right.
+     * @param coarseNumbers The numbers, as MeanField.getNumbers gives.
+     */
+    public void setCoarse(int[] region, double[] coarseNumbers)
+    {
+        this.region = region;
+        this.coarseNumbers = coarseNumbers;
+    }
+
+    /**
+     * @return The region of interest as top, left, bottom and right,
+     *         or null if the whole world is held as entities.
+     */
+    public int[] getRegion()
+    {
+        return region;
+    }
+
+    /**
+     * @return The numbers of the blocks outside the region, or null.
+     */
+    public double[] getCoarseNumbers()
+    {
+        return coarseNumbers;
+    }
+
+    /**
+     * @return The step this is the state of.
+     */
+    public int getStep()
+    {
+        return step;
+    }
+
+    /**
+     * @return The depth of the field.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    /**
+     * @return The width of the field.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * @return The number of animals, including any that have died
+     *         during the step but not yet been removed.
+     */
+    public int getAnimalCount()
+    {
+        return animalCount;
+    }
+
+    /**
+     * @return The number of plants, including any that have died
+     *         during the step but not yet been removed.
+     */
+    public int getPlantCount()
+    {
+        return plantCount;
+    }
+
+    /**
+     * @return The index of a location, or -1 for no location.
+     */
+    private static int cellOf(Location location, int width)
+    {
+        return location == null ? -1 : location.getRow() * width + location.getCol();
+    }
+
+    /**
+     * @return The location of a cell index, or null if the entity is
+     *         dead.
+     */
+    private Location locationOf(int cell, int flags)
+    {
+        if((flags & ALIVE) == 0) {
+            return null;
+        }
+        if(cell < 0 || cell >= depth * width) {
+            throw new IllegalArgumentException("Location out of range: " + cell);
+        }
+        int row = cell / width;
+        return new Location(row, cell - row * width);
+    }
+
+    /**
+     * @return The location of a cell index, shared with the animal
+     *         there if there is one, or null if the entity is dead.
+     *         Locations cannot change, so sharing one is safe.
+     */
+    private Location locationOf(int cell, int flags, Field field)
+    {
+        if((flags & ALIVE) == 0 || cell < 0 || cell >= depth * width) {
+            return locationOf(cell, flags);
+        }
+        int row = cell / width;
+        int col = cell - row * width;
+        Object animal = field.getObjectAt(row, col);
+        if(animal instanceof Animal) {
+            return ((Animal) animal).getLocation();
+        }
+        return new Location(row, col);
+    }
+}